@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.cobber.fta.core.FTAPluginException;
+
+/*
+ * Measure the cost of checking a value against each of the Rule types enforced by Quality.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QualityBenchmark {
+	@Param({ "NullPercent", "OneOf", "SemanticType" })
+	public String ruleType;
+
+	private ColumnValidator validator;
+	private String[] inputs;
+
+	@Setup
+	public void setup() throws FTAPluginException {
+		final RuleSet ruleSet = new RuleSet("field");
+
+		switch (ruleType) {
+		case "NullPercent":
+			ruleSet.add(new Rule("NullPercent", "0.0"));
+			inputs = new String[] { "ALPHA", null, "BETA", "GAMMA", "DELTA", null, "EPSILON", "ZETA" };
+			break;
+		case "OneOf":
+			ruleSet.add(new Rule("OneOf", "MALE", "FEMALE", "UNKNOWN"));
+			inputs = new String[] { "MALE", "female", "Unknown", "MALE", "FEMALE", "M", "male", "FEMALE" };
+			break;
+		case "SemanticType":
+			ruleSet.add(new Rule("SemanticType", "STATE_PROVINCE.STATE_US"));
+			inputs = new String[] { "CA", "NY", "TX", "WA", "XX", "ma", "FL", "OR" };
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown rule type: " + ruleType);
+		}
+
+		validator = ColumnValidator.compile(ruleSet);
+	}
+
+	@Benchmark
+	public void check(final Blackhole blackhole) {
+		for (final String input : inputs)
+			blackhole.consume(validator.isValid(input));
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.cobber.fta.AnalyzerContext;
+import com.cobber.fta.TextAnalyzer;
+import com.cobber.fta.core.FTAPluginException;
+import com.cobber.fta.core.FTAUnsupportedLocaleException;
+import com.cobber.fta.dates.DateTimeParser.DateResolutionMode;
+import com.univocity.parsers.csv.CsvParser;
+
+/*
+ * Measure the cost of generating RuleSets, both from the profiles and from the supplied specification file.
+ * Note: the benchmarks expect to be run from the top of the project so that the sample data is available.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleGenerationBenchmark {
+	private static final String SPECIFICATION = "data/sample.json";
+	private static final String DATA = "data/sample.csv";
+
+	private JSONProfile[] jsonProfiles;
+	private ProxyProfile[] proxyProfiles;
+	private DriverOptions options;
+
+	@Setup
+	public void setup() throws IOException, FTAPluginException, FTAUnsupportedLocaleException {
+		options = new DriverOptions();
+		jsonProfiles = RuleSet.MAPPER.readValue(new File(SPECIFICATION), JSONProfile[].class);
+
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(DATA), StandardCharsets.UTF_8))) {
+			final CsvParser parser = new CsvParser(CsvInput.detectingSettings());
+			parser.beginParsing(in);
+			final String[] header = parser.getRecordMetadata().headers();
+			final TextAnalyzer[] analyzers = new TextAnalyzer[header.length];
+			for (int i = 0; i < header.length; i++)
+				analyzers[i] = new TextAnalyzer(new AnalyzerContext(header[i], DateResolutionMode.Auto, DATA, header));
+
+			String[] row;
+			while ((row = parser.parseNext()) != null)
+				if (row.length == header.length)
+					for (int i = 0; i < header.length; i++)
+						analyzers[i].train(row[i]);
+
+			proxyProfiles = new ProxyProfile[header.length];
+			for (int i = 0; i < header.length; i++)
+				proxyProfiles[i] = new ProxyProfile(analyzers[i].getResult());
+		}
+	}
+
+	@Benchmark
+	public void generateFromJSONProfile(final Blackhole blackhole) {
+		for (final JSONProfile profile : jsonProfiles)
+			blackhole.consume(profile.generateRuleSet());
+	}
+
+	@Benchmark
+	public void generateFromProxyProfile(final Blackhole blackhole) {
+		for (final ProxyProfile profile : proxyProfiles)
+			blackhole.consume(profile.generateRuleSet());
+	}
+
+	@Benchmark
+	public ArrayList<RuleSet> generateFromSpecification() {
+		return Driver.generateRuleSetsFromSpecification(SPECIFICATION, options);
+	}
+}
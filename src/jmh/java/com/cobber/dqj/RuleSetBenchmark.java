@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Measure the cost of serializing the RuleSets generated from the sample specification.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleSetBenchmark {
+	private ArrayList<RuleSet> allRuleSets;
+
+	@Setup
+	public void setup() {
+		allRuleSets = Driver.generateRuleSetsFromSpecification("data/sample.json", new DriverOptions());
+	}
+
+	@Benchmark
+	public void asJSON(final Blackhole blackhole) {
+		for (final RuleSet ruleSet : allRuleSets)
+			blackhole.consume(ruleSet.asJSON());
+	}
+
+	@Benchmark
+	public void asDQDL(final Blackhole blackhole) {
+		for (final RuleSet ruleSet : allRuleSets)
+			blackhole.consume(ruleSet.asDQDL());
+	}
+}
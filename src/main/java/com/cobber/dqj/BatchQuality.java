@@ -0,0 +1,255 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.cobber.fta.core.FTAPluginException;
+
+/*
+ * Validate a set of files (named explicitly, or as a directory or a glob) concurrently on a bounded pool of threads,
+ * each file is validated on a single thread.  If a specification is supplied its rules are used for every file,
+ * otherwise the rules are generated from the first file seen with each distinct header and shared (immutably) by all
+ * the other files with the same header.
+ * The errors for each file are output as a block (in the order the files were named), followed by a summary report
+ * covering all the files.  Note: the errors for a file are held in memory until the block is output, use --maxErrors
+ * to bound them.
+ */
+class BatchQuality {
+	private final DriverOptions options;
+	private final int threads;
+	/* The compiled rules from the specification, or null if rules are generated per header. */
+	private final ArrayList<ColumnValidator> specified;
+	private final ConcurrentHashMap<String, CompletableFuture<ArrayList<ColumnValidator>>> generated = new ConcurrentHashMap<>();
+
+	/* The outcome of validating a single file - either a report or the reason the validation failed. */
+	private static class FileResult {
+		final String filename;
+		final QualityReport report;
+		final String failure;
+		final byte[] errors;
+
+		FileResult(final String filename, final QualityReport report, final String failure, final byte[] errors) {
+			this.filename = filename;
+			this.report = report;
+			this.failure = failure;
+			this.errors = errors;
+		}
+	}
+
+	BatchQuality(final ArrayList<RuleSet> allRules, final DriverOptions options) throws FTAPluginException {
+		this.options = options;
+		threads = Math.max(1, options.threads);
+		specified = allRules == null ? null : Quality.compile(allRules);
+	}
+
+	/*
+	 * Do the arguments (starting at idx) name more than one file, a directory or a glob?
+	 */
+	static boolean isBatch(final String[] args, final int idx) {
+		return args.length - idx > 1 || (args.length - idx == 1 && (isGlob(args[idx]) || new File(args[idx]).isDirectory()));
+	}
+
+	private static boolean isGlob(final String arg) {
+		return arg.indexOf('*') != -1 || arg.indexOf('?') != -1 || arg.indexOf('[') != -1 || arg.indexOf('{') != -1;
+	}
+
+	/*
+	 * Expand the arguments (starting at idx) into the list of files to validate.  A directory contributes the regular
+	 * files it contains (not recursively), and a glob the regular files that match it (use ** to match across directories).
+	 */
+	static List<String> expand(final String[] args, final int idx) throws IOException {
+		final List<String> ret = new ArrayList<>();
+		for (int i = idx; i < args.length; i++) {
+			final String arg = args[i];
+			if (isGlob(arg)) {
+				// Walk from the longest leading directory without any glob characters
+				final Path pattern = Paths.get(arg);
+				Path base = pattern.getRoot();
+				for (final Path component : pattern) {
+					if (isGlob(component.toString()))
+						break;
+					base = base == null ? component : base.resolve(component);
+				}
+				final boolean relative = base == null;
+				final Path start = relative ? Paths.get(".") : base;
+				final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg);
+				try (Stream<Path> paths = Files.walk(start)) {
+					ret.addAll(paths.map(p -> relative ? start.relativize(p) : p).filter(p -> Files.isRegularFile(p) && matcher.matches(p))
+							.map(Path::toString).sorted().collect(Collectors.toList()));
+				}
+			}
+			else if (Files.isDirectory(Paths.get(arg))) {
+				try (Stream<Path> paths = Files.list(Paths.get(arg))) {
+					ret.addAll(paths.filter(Files::isRegularFile).map(Path::toString).sorted().collect(Collectors.toList()));
+				}
+			}
+			else
+				ret.add(arg);
+		}
+
+		return ret;
+	}
+
+	void execute(final List<String> filenames) {
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final List<Future<FileResult>> futures = new ArrayList<>(filenames.size());
+		final List<FileResult> results = new ArrayList<>(filenames.size());
+		try {
+			for (final String filename : filenames)
+				futures.add(pool.submit(() -> validate(filename)));
+
+			for (final Future<FileResult> future : futures) {
+				final FileResult result = future.get();
+				if (result.errors.length != 0) {
+					if ("text".equalsIgnoreCase(options.errors))
+						System.err.printf("File '%s':%n", result.filename);
+					System.err.write(result.errors, 0, result.errors.length);
+				}
+				if (options.summary && result.report != null) {
+					System.err.printf("File '%s' ", result.filename);
+					result.report.print(System.err);
+				}
+				// Only the summary is retained once the errors have been output
+				results.add(new FileResult(result.filename, result.report, result.failure, null));
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Validation failed", e.getCause());
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+		print(results, System.err);
+	}
+
+	/*
+	 * Validate a single file, failures are recorded in the result rather than terminating the batch.
+	 */
+	private FileResult validate(final String filename) {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (CsvInput input = new CsvInput(filename)) {
+			final String[] header = input.header;
+			if (header == null)
+				return new FileResult(filename, null, "Cannot parse header", new byte[0]);
+
+			List<String[]> prefix = Collections.emptyList();
+			ArrayList<ColumnValidator> compiled = specified;
+			if (compiled == null) {
+				// The first file seen with this header generates the rules, the others wait for them
+				final CompletableFuture<ArrayList<ColumnValidator>> mine = new CompletableFuture<>();
+				final CompletableFuture<ArrayList<ColumnValidator>> existing = generated.putIfAbsent(String.join("\u0000", header), mine);
+				if (existing == null) {
+					try {
+						prefix = Driver.readPrefix(input.parser);
+						mine.complete(Quality.compile(Driver.generateRuleSetsFromRows(filename, header, Driver.trainingRows(prefix, header.length, false), options)));
+					}
+					catch (Exception e) {
+						mine.completeExceptionally(e);
+					}
+				}
+				compiled = (existing == null ? mine : existing).get();
+			}
+
+			final QualityReport report;
+			try (ErrorSink errors = BufferedErrorSink.create(options.errors, header, options.maxErrors, buffer)) {
+				report = Quality.validate(input, prefix, Quality.validators(header, compiled, options), errors, 1, options.mapped,
+						options.uniqueMemory * 1024 * 1024 / threads);
+			}
+
+			return new FileResult(filename, report, null, buffer.toByteArray());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new FileResult(filename, null, "Interrupted", buffer.toByteArray());
+		}
+		catch (ExecutionException e) {
+			return new FileResult(filename, null, "Rule generation failed. " + e.getCause().getMessage(), buffer.toByteArray());
+		}
+		catch (IOException|RuntimeException e) {
+			return new FileResult(filename, null, e.getClass().getSimpleName() + ". " + e.getMessage(), buffer.toByteArray());
+		}
+	}
+
+	/*
+	 * Output the summary across all the files, followed by a line per file.
+	 */
+	private static void print(final List<FileResult> results, final PrintStream out) {
+		long records = 0;
+		long malformed = 0;
+		long violations = 0;
+		long duplicates = 0;
+		int failed = 0;
+		for (final FileResult result : results) {
+			if (result.report == null) {
+				failed++;
+				continue;
+			}
+			records += result.report.getRecords();
+			malformed += result.report.getMalformed();
+			violations += totalViolations(result.report);
+			duplicates += totalDuplicates(result.report);
+		}
+
+		out.printf("Files: %d, failed: %d, records: %d, malformed: %d, violations: %d, duplicates: %d%n",
+				results.size(), failed, records, malformed, violations, duplicates);
+		for (final FileResult result : results) {
+			if (result.report == null)
+				out.printf("File '%s': ERROR %s%n", result.filename, result.failure);
+			else
+				out.printf("File '%s': records %d, malformed %d, violations %d, duplicates %d%n", result.filename,
+						result.report.getRecords(), result.report.getMalformed(), totalViolations(result.report), totalDuplicates(result.report));
+		}
+	}
+
+	private static long totalViolations(final QualityReport report) {
+		long ret = 0;
+		for (int i = 0; i < report.getFieldNames().length; i++)
+			ret += report.getViolations(i);
+		return ret;
+	}
+
+	private static long totalDuplicates(final QualityReport report) {
+		long ret = 0;
+		for (int i = 0; i < report.getFieldNames().length; i++)
+			ret += report.getDuplicates(i);
+		return ret;
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/*
+ * The standard ErrorSinks.  Errors are written to a large buffer which is only flushed when it fills (or the sink
+ * is closed), so the cost of output is amortized over many errors rather than paid (with a lock) on every error.
+ * At most maxErrors errors are output per field (and for malformed records), the remainder are counted and a
+ * summary of the suppressed errors is output when the sink is closed.
+ * Closing the sink flushes it, the underlying stream is not closed.
+ */
+abstract class BufferedErrorSink implements ErrorSink {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	protected final Writer out;
+	protected final String[] header;
+	private final int maxErrors;
+	private final long[] emitted;
+	private long emittedMalformed;
+
+	BufferedErrorSink(final OutputStream stream, final Charset charset, final String[] header, final int maxErrors) {
+		this.out = new BufferedWriter(new OutputStreamWriter(stream, charset), BUFFER_SIZE);
+		this.header = header;
+		this.maxErrors = maxErrors;
+		emitted = new long[header.length];
+	}
+
+	/**
+	 * Create an ErrorSink.
+	 * @param format The output format - one of Text, JSONL or CSV (case insensitive).
+	 * @param header The names of the fields.
+	 * @param maxErrors The maximum number of errors to output per field.
+	 * @param stream The stream to write the errors to.
+	 * @return The ErrorSink, or null if the format is not recognized.
+	 */
+	static ErrorSink create(final String format, final String[] header, final int maxErrors, final OutputStream stream) {
+		if ("text".equalsIgnoreCase(format))
+			return new Text(stream, header, maxErrors);
+		if ("jsonl".equalsIgnoreCase(format))
+			return new JSONL(stream, header, maxErrors);
+		if ("csv".equalsIgnoreCase(format))
+			return new CSV(stream, header, maxErrors);
+		return null;
+	}
+
+	static boolean isFormat(final String format) {
+		return "text".equalsIgnoreCase(format) || "jsonl".equalsIgnoreCase(format) || "csv".equalsIgnoreCase(format);
+	}
+
+	@Override
+	public void malformed(final long record, final int fields, final int expected) {
+		if (emittedMalformed++ >= maxErrors)
+			return;
+		try {
+			writeMalformed(record, fields, expected);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void error(final int field, final long record, final String content) {
+		if (emitted[field]++ >= maxErrors)
+			return;
+		try {
+			writeError(field, record, content);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void duplicate(final int field, final long record, final long previous) {
+		if (emitted[field]++ >= maxErrors)
+			return;
+		try {
+			writeDuplicate(field, record, previous);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (emittedMalformed > maxErrors)
+			writeSuppressed(-1, emittedMalformed - maxErrors);
+		for (int i = 0; i < header.length; i++)
+			if (emitted[i] > maxErrors)
+				writeSuppressed(i, emitted[i] - maxErrors);
+		out.flush();
+	}
+
+	protected abstract void writeMalformed(long record, int fields, int expected) throws IOException;
+
+	protected abstract void writeError(int field, long record, String content) throws IOException;
+
+	protected abstract void writeDuplicate(int field, long record, long previous) throws IOException;
+
+	/* Output the count of suppressed errors for a field, a field of -1 indicates malformed records. */
+	protected abstract void writeSuppressed(int field, long count) throws IOException;
+
+	/*
+	 * The traditional human-readable output.
+	 */
+	static class Text extends BufferedErrorSink {
+		Text(final OutputStream stream, final String[] header, final int maxErrors) {
+			super(stream, Charset.defaultCharset(), header, maxErrors);
+		}
+
+		@Override
+		protected void writeMalformed(final long record, final int fields, final int expected) throws IOException {
+			out.append("ERROR: Record ").append(Long.toString(record)).append(" has ").append(Integer.toString(fields))
+				.append(" fields, expected ").append(Integer.toString(expected)).append(", skipping").append(System.lineSeparator());
+		}
+
+		@Override
+		protected void writeError(final int field, final long record, final String content) throws IOException {
+			out.append("Error in field '").append(header[field]).append("'(").append(Integer.toString(field))
+				.append(") on line ").append(Long.toString(record)).append(", content: '").append(String.valueOf(content))
+				.append('\'').append(System.lineSeparator());
+		}
+
+		@Override
+		protected void writeDuplicate(final int field, final long record, final long previous) throws IOException {
+			out.append("Duplicate in field '").append(header[field]).append("'(").append(Integer.toString(field))
+				.append(") on line ").append(Long.toString(record)).append(", previously seen on line ").append(Long.toString(previous))
+				.append(System.lineSeparator());
+		}
+
+		@Override
+		protected void writeSuppressed(final int field, final long count) throws IOException {
+			if (field == -1)
+				out.append("Malformed records: ");
+			else
+				out.append("Field '").append(header[field]).append("'(").append(Integer.toString(field)).append("): ");
+			out.append(Long.toString(count)).append(" further errors suppressed").append(System.lineSeparator());
+		}
+	}
+
+	/*
+	 * One JSON object per line, e.g. {"type":"error","record":12,"field":"Name","index":3,"content":"xyz"}.
+	 */
+	static class JSONL extends BufferedErrorSink {
+		private final JsonGenerator generator;
+
+		JSONL(final OutputStream stream, final String[] header, final int maxErrors) {
+			super(stream, StandardCharsets.UTF_8, header, maxErrors);
+			try {
+				generator = RuleSet.MAPPER.getFactory().createGenerator(out);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+			generator.setRootValueSeparator(null);
+		}
+
+		@Override
+		protected void writeMalformed(final long record, final int fields, final int expected) throws IOException {
+			generator.writeStartObject();
+			generator.writeStringField("type", "malformed");
+			generator.writeNumberField("record", record);
+			generator.writeNumberField("fields", fields);
+			generator.writeNumberField("expected", expected);
+			end();
+		}
+
+		@Override
+		protected void writeError(final int field, final long record, final String content) throws IOException {
+			generator.writeStartObject();
+			generator.writeStringField("type", "error");
+			generator.writeNumberField("record", record);
+			generator.writeStringField("field", header[field]);
+			generator.writeNumberField("index", field);
+			generator.writeStringField("content", content);
+			end();
+		}
+
+		@Override
+		protected void writeDuplicate(final int field, final long record, final long previous) throws IOException {
+			generator.writeStartObject();
+			generator.writeStringField("type", "duplicate");
+			generator.writeNumberField("record", record);
+			generator.writeStringField("field", header[field]);
+			generator.writeNumberField("index", field);
+			generator.writeNumberField("previous", previous);
+			end();
+		}
+
+		@Override
+		protected void writeSuppressed(final int field, final long count) throws IOException {
+			generator.writeStartObject();
+			generator.writeStringField("type", "suppressed");
+			if (field != -1) {
+				generator.writeStringField("field", header[field]);
+				generator.writeNumberField("index", field);
+			}
+			generator.writeNumberField("count", count);
+			end();
+		}
+
+		private void end() throws IOException {
+			generator.writeEndObject();
+			// Flush the generator's buffer into our (buffered) writer so the line terminator is correctly placed
+			generator.flush();
+			out.write('\n');
+		}
+	}
+
+	/*
+	 * RFC 4180 CSV with a header - type,record,field,index,content.  For malformed records the content is the number
+	 * of fields in the record, for duplicates it is the record of the earlier occurrence and for suppressed errors it is
+	 * the number of errors suppressed.
+	 */
+	static class CSV extends BufferedErrorSink {
+		private boolean headerWritten;
+
+		CSV(final OutputStream stream, final String[] header, final int maxErrors) {
+			super(stream, StandardCharsets.UTF_8, header, maxErrors);
+		}
+
+		@Override
+		protected void writeMalformed(final long record, final int fields, final int expected) throws IOException {
+			start("malformed").append(Long.toString(record)).append(",,,").append(Integer.toString(fields)).append("\r\n");
+		}
+
+		@Override
+		protected void writeError(final int field, final long record, final String content) throws IOException {
+			start("error").append(Long.toString(record)).append(',');
+			quote(header[field]);
+			out.append(',').append(Integer.toString(field)).append(',');
+			quote(content);
+			out.append("\r\n");
+		}
+
+		@Override
+		protected void writeDuplicate(final int field, final long record, final long previous) throws IOException {
+			start("duplicate").append(Long.toString(record)).append(',');
+			quote(header[field]);
+			out.append(',').append(Integer.toString(field)).append(',').append(Long.toString(previous)).append("\r\n");
+		}
+
+		@Override
+		protected void writeSuppressed(final int field, final long count) throws IOException {
+			start("suppressed").append(',');
+			if (field != -1) {
+				quote(header[field]);
+				out.append(',').append(Integer.toString(field));
+			}
+			else
+				out.append(',');
+			out.append(',').append(Long.toString(count)).append("\r\n");
+		}
+
+		@Override
+		public void close() throws IOException {
+			// Ensure the header is present even if there were no errors
+			if (!headerWritten)
+				writeHeader();
+			super.close();
+		}
+
+		private Writer start(final String type) throws IOException {
+			if (!headerWritten)
+				writeHeader();
+			return out.append(type).append(',');
+		}
+
+		private void writeHeader() throws IOException {
+			out.append("type,record,field,index,content\r\n");
+			headerWritten = true;
+		}
+
+		private void quote(final String value) throws IOException {
+			if (value == null)
+				return;
+			boolean needsQuotes = value.isEmpty();
+			for (int i = 0; i < value.length() && !needsQuotes; i++) {
+				final char ch = value.charAt(i);
+				needsQuotes = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+			}
+			if (!needsQuotes) {
+				out.append(value);
+				return;
+			}
+			out.append('"');
+			for (int i = 0; i < value.length(); i++) {
+				final char ch = value.charAt(i);
+				if (ch == '"')
+					out.append('"');
+				out.append(ch);
+			}
+			out.append('"');
+		}
+	}
+}
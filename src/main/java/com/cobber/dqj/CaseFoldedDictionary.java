@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+/*
+ * An immutable, case-insensitive set of Strings used to implement OneOf checks with large member lists.
+ *  - Members are folded once on construction and stored in an open-addressed (linear probing) table.
+ *  - Lookups hash and compare the folded characters of the candidate on the fly, so no folded (or even String) copy
+ *    of the value being checked is created, and the cost is independent of the number of members.
+ *  - The full hash of each member is retained so that almost all mismatches are rejected without a character compare.
+ * Folding is identical to ColumnValidator.fold(), i.e. two values match if they are equalsIgnoreCase().
+ */
+final class CaseFoldedDictionary {
+	private static final double LOAD_FACTOR = 0.5;
+
+	private final String[] keys;
+	private final int[] hashes;
+	private final int mask;
+	private final int size;
+
+	CaseFoldedDictionary(final String[] members) {
+		int capacity = 8;
+		while (capacity * LOAD_FACTOR < members.length)
+			capacity *= 2;
+		keys = new String[capacity];
+		hashes = new int[capacity];
+		mask = capacity - 1;
+
+		int count = 0;
+		for (final String member : members) {
+			final String folded = ColumnValidator.fold(member);
+			final int hash = hash(folded);
+			int slot = hash & mask;
+			while (keys[slot] != null && !(hashes[slot] == hash && keys[slot].equals(folded)))
+				slot = (slot + 1) & mask;
+			if (keys[slot] == null) {
+				keys[slot] = folded;
+				hashes[slot] = hash;
+				count++;
+			}
+		}
+		size = count;
+	}
+
+	/*
+	 * Is the input (case-insensitively) a member of the set.
+	 */
+	boolean contains(final CharSequence input) {
+		final int hash = hash(input);
+		int slot = hash & mask;
+		String key;
+		while ((key = keys[slot]) != null) {
+			if (hashes[slot] == hash && matches(key, input))
+				return true;
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private static boolean matches(final String key, final CharSequence input) {
+		final int length = key.length();
+		if (input.length() != length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (key.charAt(i) != fold(input.charAt(i)))
+				return false;
+		return true;
+	}
+
+	/*
+	 * Hash of the folded characters, with a final avalanche (from MurmurHash3) so that members which differ only in
+	 * their trailing characters do not cluster in the table.
+	 */
+	private static int hash(final CharSequence input) {
+		int h = 0;
+		for (int i = 0; i < input.length(); i++)
+			h = 31 * h + fold(input.charAt(i));
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/*
+	 * Fold a single character, ASCII (by far the most common case) is handled without consulting the Unicode tables.
+	 */
+	private static char fold(final char ch) {
+		if (ch < 0x80)
+			return ch >= 'A' && ch <= 'Z' ? (char)(ch + ('a' - 'A')) : ch;
+		return Character.toLowerCase(Character.toUpperCase(ch));
+	}
+}
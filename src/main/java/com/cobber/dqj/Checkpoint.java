@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.univocity.parsers.csv.CsvFormat;
+
+/*
+ * The progress of the incremental validation of a file that is being appended to - the offset of the first record
+ * not yet validated, the number of records validated so far, and the header and format of the file (both of which
+ * are determined on the first run and reused thereafter).  A fingerprint (a CRC of the start of the file) is also
+ * recorded so that a file replaced by one with the same header, e.g. a rotated log, is not resumed mid-record.
+ */
+class Checkpoint {
+	/* Number of bytes at the start of the file covered by the fingerprint. */
+	private static final int FINGERPRINT_SIZE = 64 * 1024;
+
+	final String[] header;
+	final CsvFormat format;
+	final long offset;
+	final long records;
+	final int fingerprintLength;
+	final long fingerprint;
+
+	Checkpoint(final String[] header, final CsvFormat format, final long offset, final long records,
+			final int fingerprintLength, final long fingerprint) {
+		this.header = header;
+		this.format = format;
+		this.offset = offset;
+		this.records = records;
+		this.fingerprintLength = fingerprintLength;
+		this.fingerprint = fingerprint;
+	}
+
+	/*
+	 * Create a checkpoint at the supplied offset, the fingerprint covers the start of the file up to the offset (so
+	 * only bytes already seen, which do not change as the file is appended to).
+	 */
+	static Checkpoint at(final FileChannel channel, final String[] header, final CsvFormat format, final long offset, final long records) throws IOException {
+		final int length = (int)Math.min(FINGERPRINT_SIZE, offset);
+		return new Checkpoint(header, format, offset, records, length, fingerprint(channel, length));
+	}
+
+	/*
+	 * Returns true if the start of the file matches the fingerprint recorded in the checkpoint.  The caller must
+	 * ensure the file is at least as long as the checkpoint offset.
+	 */
+	boolean matches(final FileChannel channel) throws IOException {
+		return fingerprint(channel, fingerprintLength) == fingerprint;
+	}
+
+	private static long fingerprint(final FileChannel channel, final int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, buffer.position()) < 0)
+				break;
+		buffer.flip();
+
+		final CRC32 crc = new CRC32();
+		crc.update(buffer);
+		return crc.getValue();
+	}
+
+	/*
+	 * Read the checkpoint from the supplied file, returns null if the file does not exist.
+	 */
+	static Checkpoint read(final File file) throws IOException {
+		if (!file.exists())
+			return null;
+
+		final JsonNode node = RuleSet.MAPPER.readTree(file);
+		final JsonNode fields = node.get("header");
+		final String[] header = new String[fields.size()];
+		for (int i = 0; i < header.length; i++)
+			header[i] = fields.get(i).isNull() ? null : fields.get(i).asText();
+
+		final JsonNode fingerprint = node.get("fingerprint");
+		if (fingerprint == null) {
+			System.err.printf("ERROR: Checkpoint '%s' has no fingerprint.%n", file.getPath());
+			System.exit(1);
+		}
+
+		return new Checkpoint(header, RuleCache.formatFromJSON(node.get("format")), node.get("offset").asLong(), node.get("records").asLong(),
+				fingerprint.get("length").asInt(), fingerprint.get("crc").asLong());
+	}
+
+	/*
+	 * Write the checkpoint, the file is replaced atomically so an interrupted run never leaves a partial checkpoint.
+	 */
+	void write(final File file) throws IOException {
+		final ObjectNode node = RuleSet.MAPPER.createObjectNode();
+		final ArrayNode fields = node.putArray("header");
+		for (final String field : header)
+			fields.add(field);
+		node.set("format", RuleCache.formatAsJSON(format));
+		node.put("offset", offset);
+		node.put("records", records);
+		final ObjectNode crc = node.putObject("fingerprint");
+		crc.put("length", fingerprintLength);
+		crc.put("crc", fingerprint);
+
+		final Path target = file.getAbsoluteFile().toPath();
+		final Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		try {
+			RuleSet.MAPPER.writerWithDefaultPrettyPrinter().writeValue(temp.toFile(), node);
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cobber.fta.AnalysisConfig;
+import com.cobber.fta.LogicalType;
+import com.cobber.fta.LogicalTypeFactory;
+import com.cobber.fta.PluginDefinition;
+import com.cobber.fta.core.FTAPluginException;
+import com.cobber.fta.core.InternalErrorException;
+
+/**
+ * A ColumnValidator is the compiled form of a RuleSet.  All the work that depends only on the Rules (plugin lookup,
+ * LogicalType construction, building the set of valid members, parsing the bounds) is done once when the validator is compiled,
+ * leaving only the per-cell checks to be done as the data is read.
+ * A ColumnValidator is immutable and may be shared across threads.
+ */
+public final class ColumnValidator {
+	/**
+	 * A single compiled check, a value is valid for the column if it passes every check.
+	 */
+	interface Check {
+		boolean isValid(CharSequence input);
+	}
+
+	private final String name;
+	private final Check[] checks;
+	/* The timer for each check, only used on the records sampled when collecting metrics. */
+	private final Metrics.Timer[] timers;
+	private final boolean unique;
+
+	private ColumnValidator(final String name, final Check[] checks, final String[] checkNames, final boolean unique) {
+		this.name = name;
+		this.checks = checks;
+		this.unique = unique;
+		timers = new Metrics.Timer[checks.length];
+		for (int i = 0; i < checks.length; i++)
+			timers[i] = Metrics.INSTANCE.rule(checkNames[i]);
+	}
+
+	/**
+	 * Compile a RuleSet into a ColumnValidator.
+	 * @param ruleSet The RuleSet to compile.
+	 * @return A ColumnValidator which enforces the Rules in the RuleSet.
+	 * @throws FTAPluginException If a Semantic Type plugin cannot be instantiated.
+	 */
+	public static ColumnValidator compile(final RuleSet ruleSet) throws FTAPluginException {
+		final List<Check> checks = new ArrayList<>();
+		final List<String> checkNames = new ArrayList<>();
+		boolean unique = false;
+		String baseType = null;
+		String format = null;
+		String min = null;
+		String max = null;
+
+		for (final Rule rule : ruleSet.getRules()) {
+			switch (rule.getName()) {
+			case "BaseType":
+				baseType = rule.getArguments()[0];
+				break;
+			case "NullPercent":
+				checks.add(input -> input != null);
+				checkNames.add(rule.getName());
+				break;
+			case "Format":
+				format = rule.getArguments()[0];
+				break;
+			case "Min":
+				min = rule.getArguments()[0];
+				break;
+			case "Max":
+				max = rule.getArguments()[0];
+				break;
+			case "Unique":
+				// Uniqueness is a property of the column not the cell, so it is enforced separately (see UniqueChecker)
+				unique = true;
+				break;
+			case "OneOf":
+				checks.add(new OneOfCheck(rule.getArguments()));
+				checkNames.add(rule.getName());
+				break;
+			case "Pattern":
+				final Check pattern = PatternMatcher.compile(rule.getArguments()[0]);
+				if (pattern != null) {
+					checks.add(pattern);
+					checkNames.add(rule.getName());
+				}
+				break;
+			case "SemanticType":
+				final PluginDefinition defn = PluginDefinition.findByQualifier(rule.getArguments()[0]);
+				if (defn != null) {
+					checks.add(new SemanticTypeCheck(defn, ruleSet.getName(), ruleSet.getCardinality()));
+					checkNames.add(rule.getName() + ":" + rule.getArguments()[0]);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		// The range check needs the type, format and both bounds so can only be compiled once all the Rules have been seen,
+		// numeric types have no Format Rule but the RuleSet may carry the type modifier from the profile
+		final Check range = RangeCheck.compile(ruleSet.getName(), baseType, format != null ? format : ruleSet.getTypeModifier(), min, max);
+		if (range != null) {
+			checks.add(range);
+			checkNames.add("Range");
+		}
+
+		return new ColumnValidator(ruleSet.getName(), checks.toArray(new Check[0]), checkNames.toArray(new String[0]), unique);
+	}
+
+	/**
+	 * Validate a single value.
+	 * @param input The value to validate (may be null), checks that need a String will materialize one.
+	 * @return True if the value passes all the checks for this column.
+	 */
+	public boolean isValid(final CharSequence input) {
+		for (final Check check : checks)
+			if (!check.isValid(input))
+				return false;
+
+		return true;
+	}
+
+	/*
+	 * Validate a single value as isValid() does, but timing each check - used on the sampled records when collecting metrics.
+	 */
+	boolean isValidTimed(final CharSequence input) {
+		for (int i = 0; i < checks.length; i++) {
+			final long start = System.nanoTime();
+			final boolean valid = checks[i].isValid(input);
+			timers[i].since(start);
+			if (!valid)
+				return false;
+		}
+
+		return true;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return True if every (non-blank) value in the column must be unique.
+	 */
+	public boolean isUnique() {
+		return unique;
+	}
+
+	/*
+	 * Equivalent to input.trim().isEmpty() without creating a new String.
+	 */
+	static boolean isBlank(final CharSequence input) {
+		for (int i = 0; i < input.length(); i++)
+			if (input.charAt(i) > ' ')
+				return false;
+		return true;
+	}
+
+	/*
+	 * Fold a String so that two Strings that are equalsIgnoreCase() are equals() once folded.
+	 */
+	static String fold(final String input) {
+		final char[] folded = new char[input.length()];
+		for (int i = 0; i < folded.length; i++)
+			folded[i] = Character.toLowerCase(Character.toUpperCase(input.charAt(i)));
+		return new String(folded);
+	}
+
+	/*
+	 * The value must be one of a fixed set of members (case-insensitive), null values are not checked.
+	 */
+	static final class OneOfCheck implements Check {
+		private final CaseFoldedDictionary members;
+
+		OneOfCheck(final String[] validMembers) {
+			members = new CaseFoldedDictionary(validMembers);
+		}
+
+		@Override
+		public boolean isValid(final CharSequence input) {
+			return input == null || members.contains(input);
+		}
+	}
+
+	/*
+	 * The value must be valid for the Semantic Type, null and blank values are not checked.
+	 * LogicalType instances are not guaranteed to be thread-safe so each thread gets its own instance, which is
+	 * constructed once and reused for every subsequent value validated on that thread.
+	 * Semantic Types are frequently low cardinality (e.g. states, countries, genders) and some plugins are expensive, so
+	 * each thread also memoizes the result for the most recently used values.  The cache is sized from the profiled
+	 * cardinality of the column (carried beside the rules by the RuleSet, so unknown if the rules were read back from
+	 * JSON or a binary file), it is not used at all if the cardinality is too high, and it is abandoned if it
+	 * proves ineffective (e.g. the profile was not representative of the data).
+	 */
+	static final class SemanticTypeCheck implements Check {
+		/* Columns with a profiled cardinality above this are not cached. */
+		static final int MAX_CACHED_CARDINALITY = 4096;
+		/* The cache size if the cardinality is unknown. */
+		static final int DEFAULT_CACHE_SIZE = 1024;
+		/* The smallest cache, small caches are cheap and the profile may have seen only a fraction of the values. */
+		static final int MIN_CACHE_SIZE = 256;
+		/* Minimum number of lookups before the effectiveness of the cache is assessed. */
+		private static final int MIN_WINDOW = 1024;
+		/* The cache is abandoned if less than this fraction of the lookups in a window are hits. */
+		private static final double MIN_HIT_RATE = 0.5;
+
+		private final ThreadLocal<State> state;
+		private final Metrics.CacheStats stats;
+		/* The number of lookups (per thread) between assessments of the effectiveness of the cache. */
+		private final long window;
+
+		/*
+		 * The LogicalType and the cache for a single thread, the cache is null once bypassed.
+		 */
+		private static final class State {
+			final LogicalType logical;
+			Map<String, Boolean> cache;
+			long lookups;
+			long hits;
+
+			State(final LogicalType logical, final int cacheSize) {
+				this.logical = logical;
+				if (cacheSize > 0)
+					cache = new LinkedHashMap<String, Boolean>(2 * cacheSize, 0.75f, true) {
+						private static final long serialVersionUID = 1L;
+
+						@Override
+						protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+							return size() > cacheSize;
+						}
+					};
+			}
+		}
+
+		SemanticTypeCheck(final PluginDefinition defn, final String name, final int cardinality) throws FTAPluginException {
+			final int cacheSize = cacheSize(cardinality);
+			// Allow every value to be seen several times before judging the cache
+			window = Math.max(MIN_WINDOW, 8L * cacheSize);
+			stats = Metrics.INSTANCE.semanticCache(name);
+			state = ThreadLocal.withInitial(() -> {
+				try {
+					return new State(LogicalTypeFactory.newInstance(defn, new AnalysisConfig()), cacheSize);
+				} catch (FTAPluginException e) {
+					throw new InternalErrorException("Failed to instantiate plugin", e);
+				}
+			});
+			// Instantiate eagerly on the compiling thread so that any plugin issues surface before validation starts
+			state.set(new State(LogicalTypeFactory.newInstance(defn, new AnalysisConfig()), cacheSize));
+		}
+
+		/*
+		 * The number of values to cache for a column with the supplied cardinality (0 if unknown), 0 to bypass the cache.
+		 */
+		static int cacheSize(final int cardinality) {
+			if (cardinality <= 0)
+				return DEFAULT_CACHE_SIZE;
+			if (cardinality > MAX_CACHED_CARDINALITY)
+				return 0;
+			// Leave headroom, the profile may have been generated from a subset of the data
+			return Math.max(MIN_CACHE_SIZE, Math.min(MAX_CACHED_CARDINALITY, 2 * cardinality));
+		}
+
+		@Override
+		public boolean isValid(final CharSequence input) {
+			if (input == null || isBlank(input))
+				return true;
+
+			final State current = state.get();
+			final String value = input.toString();
+			if (current.cache == null) {
+				if (Metrics.isEnabled())
+					stats.bypassed.increment();
+				return current.logical.isValid(value);
+			}
+
+			final Boolean cached = current.cache.get(value);
+			final boolean valid;
+			if (cached != null) {
+				current.hits++;
+				valid = cached;
+			}
+			else {
+				valid = current.logical.isValid(value);
+				current.cache.put(value, valid);
+			}
+			if (Metrics.isEnabled()) {
+				if (cached != null)
+					stats.hits.increment();
+				else
+					stats.misses.increment();
+			}
+
+			if (++current.lookups == window) {
+				if (current.hits < window * MIN_HIT_RATE)
+					current.cache = null;
+				current.lookups = 0;
+				current.hits = 0;
+			}
+
+			return valid;
+		}
+	}
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * A date/time format (as found in the FTA type modifier, e.g. "yyyy-MM-dd HH:mm:ss") compiled so that values can be
+ * parsed directly from the character data into a primitive key, without creating any Temporal objects.
+ * The key depends on the FTA type:
+ *  - LocalDate - the epoch day.
+ *  - LocalTime - the nano of the day.
+ *  - LocalDateTime - seconds since the epoch (treating the value as UTC).
+ *  - OffsetDateTime, ZonedDateTime - seconds since the epoch.
+ * For the date-time types the key does not include the nano of the second (see nanoOfSecond()), as epoch nanoseconds
+ * cannot represent the full range of years (a long of nanoseconds only covers 1677 to 2262).
+ * Keys of the same type are ordered in the same way as the corresponding Temporal values, ties between date-time keys
+ * are broken by the nano of the second.
+ * Formats using pattern letters not supported by the compiled parser (e.g. zone names) fall back to a DateTimeFormatter.
+ */
+final class CompiledDateFormat {
+	/** Returned by parse() if the value is not valid for the format. */
+	static final long INVALID = Long.MIN_VALUE;
+
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+	private static final long SECONDS_PER_DAY = 86_400L;
+	private static final String[] MONTHS = {
+		"January", "February", "March", "April", "May", "June",
+		"July", "August", "September", "October", "November", "December"
+	};
+
+	private static final int LITERAL = 0;
+	private static final int YEAR = 1;
+	private static final int YEAR2 = 2;
+	private static final int MONTH = 3;
+	private static final int MONTH_SHORT = 4;
+	private static final int MONTH_FULL = 5;
+	private static final int DAY = 6;
+	private static final int HOUR = 7;
+	private static final int CLOCK_HOUR = 8;
+	private static final int MINUTE = 9;
+	private static final int SECOND = 10;
+	private static final int FRACTION = 11;
+	private static final int AMPM = 12;
+	private static final int OFFSET = 13;
+	private static final int YEAR_OF_ERA = 14;
+	/* The maximum width of a variable width numeric field (as for DateTimeFormatter). */
+	private static final int MAX_WIDTH = 19;
+
+	private enum Kind { DATE, TIME, DATETIME, OFFSETDATETIME, ZONEDDATETIME }
+
+	private final Kind kind;
+	/* The compiled tokens - null if the format requires the fallback formatter. */
+	private final int[] tokens;
+	private final int[] minWidths;
+	private final int[] maxWidths;
+	private final String[] literals;
+	private final DateTimeFormatter fallback;
+
+	private CompiledDateFormat(final Kind kind, final List<int[]> compiled, final List<String> literals, final DateTimeFormatter fallback) {
+		this.kind = kind;
+		this.fallback = fallback;
+		if (compiled == null) {
+			tokens = minWidths = maxWidths = null;
+			this.literals = null;
+			return;
+		}
+		tokens = new int[compiled.size()];
+		minWidths = new int[compiled.size()];
+		maxWidths = new int[compiled.size()];
+		for (int i = 0; i < tokens.length; i++) {
+			tokens[i] = compiled.get(i)[0];
+			minWidths[i] = compiled.get(i)[1];
+			maxWidths[i] = compiled.get(i)[2];
+		}
+		this.literals = literals.toArray(new String[0]);
+	}
+
+	/*
+	 * Compile the format for the supplied FTA type (e.g. "LocalDate"), returns null if the format cannot be used.
+	 */
+	static CompiledDateFormat compile(final String type, final String format) {
+		final Kind kind = kind(type);
+		if (kind == null || format == null)
+			return null;
+
+		final List<int[]> compiled = new ArrayList<>();
+		final List<String> literals = new ArrayList<>();
+		if (tokenize(format, compiled, literals) && kind != Kind.ZONEDDATETIME)
+			return new CompiledDateFormat(kind, compiled, literals, null);
+
+		try {
+			return new CompiledDateFormat(kind, null, null, DateTimeFormatter.ofPattern(format, Locale.ENGLISH));
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static Kind kind(final String type) {
+		switch (type) {
+		case "LocalDate":
+			return Kind.DATE;
+		case "LocalTime":
+			return Kind.TIME;
+		case "LocalDateTime":
+			return Kind.DATETIME;
+		case "OffsetDateTime":
+			return Kind.OFFSETDATETIME;
+		case "ZonedDateTime":
+			return Kind.ZONEDDATETIME;
+		default:
+			return null;
+		}
+	}
+
+	/*
+	 * Split the format into tokens - each token is {type, minimum width, maximum width}, literal tokens index into literals.
+	 * Returns false if the format uses anything the compiled parser does not support.
+	 */
+	private static boolean tokenize(final String format, final List<int[]> compiled, final List<String> literals) {
+		final int length = format.length();
+		int i = 0;
+		while (i < length) {
+			final char ch = format.charAt(i);
+			if (ch == '\'') {
+				final StringBuilder literal = new StringBuilder();
+				i++;
+				while (true) {
+					if (i == length)
+						return false;
+					if (format.charAt(i) == '\'') {
+						if (i + 1 < length && format.charAt(i + 1) == '\'') {
+							literal.append('\'');
+							i += 2;
+							continue;
+						}
+						i++;
+						break;
+					}
+					literal.append(format.charAt(i++));
+				}
+				// '' outside a quoted literal is a single quote
+				if (literal.length() == 0)
+					literal.append('\'');
+				addLiteral(compiled, literals, literal.toString());
+				continue;
+			}
+			if (!Character.isLetter(ch)) {
+				if (ch == '[' || ch == ']' || ch == '{' || ch == '}' || ch == '#')
+					return false;
+				addLiteral(compiled, literals, String.valueOf(ch));
+				i++;
+				continue;
+			}
+
+			int count = 1;
+			while (i + count < length && format.charAt(i + count) == ch)
+				count++;
+			i += count;
+
+			final int[] token = field(ch, count);
+			if (token == null)
+				return false;
+			compiled.add(token);
+		}
+
+		// A single letter numeric field is parsed greedily (e.g. "010" for 'M'), unless followed by another numeric field
+		for (int t = 0; t < compiled.size(); t++) {
+			final int[] token = compiled.get(t);
+			if (token[1] == 1 && token[2] == 2 && (t + 1 == compiled.size() || !isNumeric(compiled.get(t + 1)[0])))
+				token[2] = MAX_WIDTH;
+		}
+
+		return true;
+	}
+
+	private static boolean isNumeric(final int type) {
+		return type != LITERAL && type != MONTH_SHORT && type != MONTH_FULL && type != AMPM && type != OFFSET;
+	}
+
+	private static void addLiteral(final List<int[]> compiled, final List<String> literals, final String literal) {
+		compiled.add(new int[] { LITERAL, literals.size(), 0 });
+		literals.add(literal);
+	}
+
+	private static int[] field(final char letter, final int count) {
+		switch (letter) {
+		case 'y':
+		case 'u':
+			if (count == 2)
+				return new int[] { YEAR2, 2, 2 };
+			// There is no year zero in the year of era ('y'), unlike the proleptic year ('u')
+			return count == 4 ? new int[] { letter == 'y' ? YEAR_OF_ERA : YEAR, 4, 4 } : null;
+		case 'M':
+		case 'L':
+			if (count == 3)
+				return new int[] { MONTH_SHORT, 3, 3 };
+			if (count == 4)
+				return new int[] { MONTH_FULL, 3, 9 };
+			return numeric(MONTH, count);
+		case 'd':
+			return numeric(DAY, count);
+		case 'H':
+			return numeric(HOUR, count);
+		case 'h':
+			return numeric(CLOCK_HOUR, count);
+		case 'm':
+			return numeric(MINUTE, count);
+		case 's':
+			return numeric(SECOND, count);
+		case 'S':
+			return count <= 9 ? new int[] { FRACTION, count, count } : null;
+		case 'a':
+			return count == 1 ? new int[] { AMPM, 2, 2 } : null;
+		case 'x':
+			return count <= 3 ? new int[] { OFFSET, count, 0 } : null;
+		case 'X':
+			return count <= 3 ? new int[] { OFFSET, count, 1 } : null;
+		default:
+			return null;
+		}
+	}
+
+	private static int[] numeric(final int type, final int count) {
+		if (count == 1)
+			return new int[] { type, 1, 2 };
+		return count == 2 ? new int[] { type, 2, 2 } : null;
+	}
+
+	/*
+	 * Parse the value, returning the key or INVALID if the value is not valid for the format.
+	 * Leading and trailing white space is ignored.
+	 */
+	long parse(final CharSequence input) {
+		return parse(input, false);
+	}
+
+	/*
+	 * Does the key omit the nano of the second, i.e. is this a date-time format?
+	 */
+	boolean hasNanoOfSecond() {
+		return kind != Kind.DATE && kind != Kind.TIME;
+	}
+
+	/*
+	 * The nano of the second of a value that has already been successfully parsed by parse().
+	 */
+	int nanoOfSecond(final CharSequence input) {
+		return (int)parse(input, true);
+	}
+
+	private long parse(final CharSequence input, final boolean nanoOfSecond) {
+		int start = 0;
+		int end = input.length();
+		while (start < end && input.charAt(start) <= ' ')
+			start++;
+		while (end > start && input.charAt(end - 1) <= ' ')
+			end--;
+
+		if (tokens == null)
+			return parseFallback(input.subSequence(start, end).toString(), nanoOfSecond);
+
+		int year = 1970;
+		int month = 1;
+		int day = 1;
+		int hour = 0;
+		int minute = 0;
+		int second = 0;
+		int nano = 0;
+		int pm = -1;
+		int offset = 0;
+		int pos = start;
+
+		for (int t = 0; t < tokens.length; t++) {
+			final int token = tokens[t];
+			if (token == LITERAL) {
+				final String literal = literals[minWidths[t]];
+				if (end - pos < literal.length())
+					return INVALID;
+				for (int i = 0; i < literal.length(); i++)
+					if (input.charAt(pos++) != literal.charAt(i))
+						return INVALID;
+				continue;
+			}
+			if (token == MONTH_SHORT || token == MONTH_FULL) {
+				month = 0;
+				for (int m = 0; m < MONTHS.length && month == 0; m++) {
+					final int length = token == MONTH_SHORT ? 3 : MONTHS[m].length();
+					if (regionMatches(input, pos, end, MONTHS[m], length)) {
+						month = m + 1;
+						pos += length;
+					}
+				}
+				if (month == 0)
+					return INVALID;
+				continue;
+			}
+			if (token == AMPM) {
+				if (regionMatches(input, pos, end, "AM", 2))
+					pm = 0;
+				else if (regionMatches(input, pos, end, "PM", 2))
+					pm = 1;
+				else
+					return INVALID;
+				pos += 2;
+				continue;
+			}
+			if (token == OFFSET) {
+				if (maxWidths[t] == 1 && pos < end && input.charAt(pos) == 'Z') {
+					pos++;
+					continue;
+				}
+				if (pos == end || (input.charAt(pos) != '+' && input.charAt(pos) != '-'))
+					return INVALID;
+				final int sign = input.charAt(pos++) == '-' ? -1 : 1;
+				final int hours = digits(input, pos, end, 2, 2);
+				if (hours < 0)
+					return INVALID;
+				pos += 2;
+				int minutes = 0;
+				if (minWidths[t] == 3) {
+					if (pos == end || input.charAt(pos++) != ':')
+						return INVALID;
+				}
+				if (minWidths[t] != 1 || (pos + 2 <= end && digits(input, pos, end, 2, 2) >= 0)) {
+					minutes = digits(input, pos, end, 2, 2);
+					if (minutes < 0)
+						return INVALID;
+					pos += 2;
+				}
+				if (hours > 18 || minutes > 59)
+					return INVALID;
+				offset = sign * (hours * 3600 + minutes * 60);
+				continue;
+			}
+
+			// Numeric fields, consume as many digits as possible (up to the maximum width)
+			int width = 0;
+			while (width < maxWidths[t] && pos + width < end && isDigit(input.charAt(pos + width)))
+				width++;
+			if (width < minWidths[t])
+				return INVALID;
+			final int value = digits(input, pos, end, width, width);
+			pos += width;
+			switch (token) {
+			case YEAR_OF_ERA:
+				if (value == 0)
+					return INVALID;
+				year = value;
+				break;
+			case YEAR:
+				year = value;
+				break;
+			case YEAR2:
+				year = 2000 + value;
+				break;
+			case MONTH:
+				month = value;
+				break;
+			case DAY:
+				day = value;
+				break;
+			case HOUR:
+				hour = value;
+				break;
+			case CLOCK_HOUR:
+				if (value < 1 || value > 12)
+					return INVALID;
+				hour = value % 12;
+				break;
+			case MINUTE:
+				minute = value;
+				break;
+			case SECOND:
+				second = value;
+				break;
+			case FRACTION:
+				nano = value;
+				for (int i = width; i < 9; i++)
+					nano *= 10;
+				break;
+			default:
+				break;
+			}
+		}
+
+		if (pos != end)
+			return INVALID;
+		if (pm == 1)
+			hour += 12;
+		if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23 || minute > 59 || second > 59)
+			return INVALID;
+
+		final long secondOfDay = (hour * 60L + minute) * 60 + second;
+		switch (kind) {
+		case DATE:
+			return epochDay(year, month, day);
+		case TIME:
+			return secondOfDay * NANOS_PER_SECOND + nano;
+		default:
+			return nanoOfSecond ? nano : epochDay(year, month, day) * SECONDS_PER_DAY + secondOfDay - offset;
+		}
+	}
+
+	private long parseFallback(final String input, final boolean nanoOfSecond) {
+		try {
+			final TemporalAccessor parsed = fallback.parse(input);
+			switch (kind) {
+			case DATE:
+				return LocalDate.from(parsed).toEpochDay();
+			case TIME:
+				return LocalTime.from(parsed).toNanoOfDay();
+			case DATETIME:
+				final LocalDateTime dateTime = LocalDateTime.from(parsed);
+				return nanoOfSecond ? dateTime.getNano() : dateTime.toEpochSecond(ZoneOffset.UTC);
+			case OFFSETDATETIME:
+				final OffsetDateTime offsetDateTime = OffsetDateTime.from(parsed);
+				return nanoOfSecond ? offsetDateTime.getNano() : offsetDateTime.toEpochSecond();
+			default:
+				final ZonedDateTime zonedDateTime = ZonedDateTime.from(parsed);
+				return nanoOfSecond ? zonedDateTime.getNano() : zonedDateTime.toEpochSecond();
+			}
+		}
+		catch (DateTimeException e) {
+			return INVALID;
+		}
+	}
+
+	/*
+	 * The number of days since 1970-01-01 (proleptic Gregorian calendar).
+	 */
+	static long epochDay(final int year, final int month, final int day) {
+		final long y = month <= 2 ? year - 1 : year;
+		final long era = (y >= 0 ? y : y - 399) / 400;
+		final long yearOfEra = y - era * 400;
+		final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private static int daysInMonth(final int year, final int month) {
+		switch (month) {
+		case 2:
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	private static boolean isDigit(final char ch) {
+		return ch >= '0' && ch <= '9';
+	}
+
+	/*
+	 * Parse between min and max digits starting at pos, returns -1 if there are not enough digits.
+	 * Values too large for any field saturate (at 999,999,999) rather than overflow.
+	 */
+	private static int digits(final CharSequence input, final int pos, final int end, final int min, final int max) {
+		int value = 0;
+		int i = 0;
+		for (; i < max && pos + i < end && isDigit(input.charAt(pos + i)); i++)
+			value = value > 99_999_999 ? 999_999_999 : value * 10 + input.charAt(pos + i) - '0';
+		return i < min ? -1 : value;
+	}
+
+	/*
+	 * Text (month names, AM/PM) is matched case-sensitively, as DateTimeFormatter does by default.
+	 */
+	private static boolean regionMatches(final CharSequence input, final int pos, final int end, final String target, final int length) {
+		if (end - pos < length)
+			return false;
+		for (int i = 0; i < length; i++)
+			if (input.charAt(pos + i) != target.charAt(i))
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/*
+ * Transparent support for gzip compressed input, files are recognized by their content (not their name).
+ *  - Blocked gzip (BGZF, as produced by bgzip) records the compressed size of every member in its header, so the
+ *    members are read sequentially and inflated in parallel, then returned in order.
+ *  - Any other gzip file (including plain multi-member files, where the member boundaries are only known once the
+ *    previous member has been inflated) is inflated on a separate read-ahead thread, so inflating overlaps parsing.
+ * In both cases the amount of decompressed data held in memory is bounded.
+ */
+class CompressedInput {
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int FEXTRA = 4;
+	/* The maximum number of decompressed chunks held ahead of the reader. */
+	private static final int READ_AHEAD = 32;
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/* The threads used to inflate blocked files, shared by all inputs and not preventing the JVM from exiting. */
+	private static final ExecutorService INFLATERS = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), r -> {
+		final Thread thread = new Thread(r, "dqj-inflater");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/* Marks the end of the decompressed data. */
+	private static final Future<byte[]> END = CompletableFuture.completedFuture(null);
+
+	/*
+	 * Is the file gzip compressed?
+	 */
+	static boolean isCompressed(final String filename) throws IOException {
+		final Path path = Paths.get(filename);
+		if (!Files.isRegularFile(path))
+			return false;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer magic = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+			return channel.read(magic, 0) == 2 && (magic.getShort(0) & 0xFFFF) == GZIP_MAGIC;
+		}
+	}
+
+	/*
+	 * Open the file, returning a stream of the decompressed content if it is compressed.
+	 */
+	static InputStream open(final String filename) throws IOException {
+		if (!isCompressed(filename))
+			return new FileInputStream(filename);
+
+		final BlockingQueue<Future<byte[]>> chunks = new ArrayBlockingQueue<>(READ_AHEAD);
+		final Thread reader;
+		if (isBlocked(filename))
+			reader = new Thread(() -> readBlocks(filename, chunks), "dqj-bgzf-reader");
+		else
+			reader = new Thread(() -> readAhead(filename, chunks), "dqj-gzip-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		return new ChunkInputStream(chunks, reader);
+	}
+
+	/*
+	 * Does the first member have a BGZF header, i.e. an extra field with a 'BC' subfield holding the block size?
+	 */
+	private static boolean isBlocked(final String filename) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			return blockSize(channel, 0, ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN)) > 0;
+		}
+	}
+
+	/*
+	 * Return the total size of the BGZF block starting at the offset, 0 at the end of the file, or -1 if it is not a
+	 * BGZF block.
+	 */
+	private static int blockSize(final FileChannel channel, final long offset, final ByteBuffer header) throws IOException {
+		header.clear();
+		while (header.hasRemaining())
+			if (channel.read(header, offset + header.position()) <= 0)
+				break;
+		if (header.position() == 0)
+			return 0;
+		if (header.position() < 18 || (header.getShort(0) & 0xFFFF) != GZIP_MAGIC || (header.get(3) & FEXTRA) == 0 ||
+				header.getShort(10) != 6 || header.get(12) != 'B' || header.get(13) != 'C' || header.getShort(14) != 2)
+			return -1;
+
+		return (header.getShort(16) & 0xFFFF) + 1;
+	}
+
+	/*
+	 * Read the BGZF blocks in order, submitting each to be inflated and queueing the (future) results in file order.
+	 */
+	private static void readBlocks(final String filename, final BlockingQueue<Future<byte[]>> chunks) {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			final ByteBuffer header = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+			long offset = 0;
+			int size;
+			while ((size = blockSize(channel, offset, header)) != 0) {
+				if (size < 0)
+					throw new ZipException("Invalid BGZF block at offset " + offset);
+				final ByteBuffer block = ByteBuffer.allocate(size);
+				while (block.hasRemaining())
+					if (channel.read(block, offset + block.position()) <= 0)
+						throw new EOFException("Truncated BGZF block at offset " + offset);
+				offset += size;
+				chunks.put(INFLATERS.submit(() -> inflate(block.array())));
+			}
+			chunks.put(END);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e) {
+			fail(chunks, e);
+		}
+	}
+
+	/*
+	 * Inflate a single BGZF block, verifying the length and CRC.
+	 */
+	private static byte[] inflate(final byte[] block) throws IOException {
+		final ByteBuffer trailer = ByteBuffer.wrap(block, block.length - 8, 8).order(ByteOrder.LITTLE_ENDIAN);
+		final int crc = trailer.getInt();
+		final int length = trailer.getInt();
+		final int dataStart = 12 + ((block[10] & 0xFF) | (block[11] & 0xFF) << 8);
+
+		final byte[] ret = new byte[length];
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(block, dataStart, block.length - 8 - dataStart);
+			if (inflater.inflate(ret) != length || !inflater.finished())
+				throw new ZipException("Corrupt BGZF block");
+		}
+		catch (DataFormatException e) {
+			throw new ZipException("Corrupt BGZF block. " + e.getMessage());
+		}
+		finally {
+			inflater.end();
+		}
+
+		final CRC32 check = new CRC32();
+		check.update(ret);
+		if ((int)check.getValue() != crc)
+			throw new ZipException("BGZF block failed CRC check");
+
+		return ret;
+	}
+
+	/*
+	 * Inflate the file (all members, in order) on this thread, queueing the decompressed content in chunks.
+	 */
+	private static void readAhead(final String filename, final BlockingQueue<Future<byte[]>> chunks) {
+		try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(filename), CHUNK_SIZE), CHUNK_SIZE)) {
+			while (true) {
+				final byte[] chunk = new byte[CHUNK_SIZE];
+				int length = 0;
+				int read;
+				while (length < CHUNK_SIZE && (read = in.read(chunk, length, CHUNK_SIZE - length)) != -1)
+					length += read;
+				if (length != 0)
+					chunks.put(CompletableFuture.completedFuture(length == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, length)));
+				if (length < CHUNK_SIZE)
+					break;
+			}
+			chunks.put(END);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e) {
+			fail(chunks, e);
+		}
+	}
+
+	private static void fail(final BlockingQueue<Future<byte[]>> chunks, final IOException e) {
+		final CompletableFuture<byte[]> failure = new CompletableFuture<>();
+		failure.completeExceptionally(e);
+		try {
+			chunks.put(failure);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * A stream over the chunks of decompressed content, in order.  Closing the stream stops the reader.
+	 */
+	private static final class ChunkInputStream extends InputStream {
+		private final BlockingQueue<Future<byte[]>> chunks;
+		private final Thread reader;
+		private byte[] current = new byte[0];
+		private int position;
+		private boolean eof;
+
+		ChunkInputStream(final BlockingQueue<Future<byte[]>> chunks, final Thread reader) {
+			this.chunks = chunks;
+			this.reader = reader;
+		}
+
+		/*
+		 * Ensure there is data in the current chunk, returns false at the end of the content.
+		 */
+		private boolean fill() throws IOException {
+			while (position == current.length) {
+				if (eof)
+					return false;
+				try {
+					final Future<byte[]> next = chunks.take();
+					if (next == END) {
+						eof = true;
+						return false;
+					}
+					current = next.get();
+					position = 0;
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while decompressing", e);
+				}
+				catch (ExecutionException e) {
+					throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return fill() ? current[position++] & 0xFF : -1;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			final int length = Math.min(len, current.length - position);
+			System.arraycopy(current, position, b, off, length);
+			position += length;
+			return length;
+		}
+
+		@Override
+		public void close() {
+			eof = true;
+			reader.interrupt();
+			// Unblock the reader if it is waiting for space in the queue
+			chunks.clear();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import com.univocity.parsers.csv.CsvFormat;
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+
+/*
+ * An open CSV file, positioned after the header, plus the common settings for parsing the CSV input.
+ */
+class CsvInput implements Closeable {
+	final String filename;
+	final CsvParser parser;
+	/* The header, null if it could not be parsed. */
+	final String[] header;
+	private final BufferedReader reader;
+	/* The format if it was supplied, if null the format is detected. */
+	private final CsvFormat format;
+
+	CsvInput(final String filename) throws IOException {
+		this(filename, null);
+	}
+
+	/*
+	 * Open the file using a previously detected format (if supplied), which avoids the cost of format detection.
+	 */
+	CsvInput(final String filename, final CsvFormat format) throws IOException {
+		this(filename, open(filename), format);
+	}
+
+	/*
+	 * Parse CSV from the supplied reader (which is closed when the input is closed), the filename is used only for
+	 * reporting.
+	 */
+	CsvInput(final String filename, final Reader reader, final CsvFormat format) throws IOException {
+		this.filename = filename;
+		this.format = format;
+		this.reader = new BufferedReader(reader);
+		try {
+			if (format == null) {
+				parser = new CsvParser(detectingSettings());
+				parser.beginParsing(this.reader);
+				header = parser.getRecordMetadata().headers();
+			}
+			else {
+				parser = new CsvParser(knownSettings(format));
+				parser.beginParsing(this.reader);
+				header = parser.parseNext();
+			}
+		}
+		catch (RuntimeException e) {
+			this.reader.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * Open the file for reading, if it is compressed the reader returns the decompressed content.
+	 */
+	static Reader open(final String filename) throws IOException {
+		return new InputStreamReader(CompressedInput.open(filename), StandardCharsets.UTF_8);
+	}
+
+	CsvFormat getFormat() {
+		return format != null ? format : parser.getDetectedFormat();
+	}
+
+	@Override
+	public void close() throws IOException {
+		parser.stopParsing();
+		reader.close();
+	}
+
+	/*
+	 * Settings used when the format of the file is unknown, the header is extracted and the format is detected
+	 * from the initial content of the file.
+	 */
+	static CsvParserSettings detectingSettings() {
+		final CsvParserSettings settings = new CsvParserSettings();
+
+		settings.setHeaderExtractionEnabled(true);
+		settings.detectFormatAutomatically();
+		settings.setLineSeparatorDetectionEnabled(true);
+		settings.setIgnoreLeadingWhitespaces(false);
+		settings.setIgnoreTrailingWhitespaces(false);
+		settings.setEmptyValue("");
+		settings.setDelimiterDetectionEnabled(true, ',', '\t', '|', ';');
+
+		return settings;
+	}
+
+	/*
+	 * Settings used when the format has already been detected and the input does not start with a header,
+	 * for example when parsing a piece of a file.
+	 */
+	static CsvParserSettings knownSettings(final CsvFormat format) {
+		final CsvParserSettings settings = new CsvParserSettings();
+
+		settings.setHeaderExtractionEnabled(false);
+		settings.setFormat(format);
+		settings.setIgnoreLeadingWhitespaces(false);
+		settings.setIgnoreTrailingWhitespaces(false);
+		settings.setEmptyValue("");
+
+		return settings;
+	}
+}
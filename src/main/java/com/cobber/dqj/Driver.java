@@ -21,105 +21,426 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import com.cobber.fta.AnalyzerContext;
-import com.cobber.fta.TextAnalyzer;
+import com.cobber.fta.core.FTAException;
 import com.cobber.fta.core.FTAPluginException;
 import com.cobber.fta.core.FTAUnsupportedLocaleException;
 import com.cobber.fta.core.InternalErrorException;
-import com.cobber.fta.dates.DateTimeParser.DateResolutionMode;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.univocity.parsers.common.TextParsingException;
+import com.univocity.parsers.csv.CsvFormat;
 import com.univocity.parsers.csv.CsvParser;
-import com.univocity.parsers.csv.CsvParserSettings;
 
 public class Driver {
 	private static ObjectMapper mapper = new ObjectMapper();
+	private static final int PREFIX_ROWS = 100;
+	private static final int TRAINING_BATCH_SIZE = 1000;
+	private static final int PROFILE_CHUNK_SIZE = 50_000;
 
 	public static void main(final String[] args) throws JsonProcessingException, FTAPluginException, FTAUnsupportedLocaleException {
 		DriverOptions options = new DriverOptions();
 		String specificationFile = null;
 		boolean quality = false;
+		boolean merge = false;
+		int serve = -1;
 		int idx = 0;
 
 		while (idx < args.length && args[idx].charAt(0) == '-') {
 			if ("--help".equals(args[idx])) {
-				System.err.println("Usage: dqj [OPTIONS] [<data file>]");
+				System.err.println("Usage: dqj [OPTIONS] [<data file> | <directory> | <glob> ...]");
 				System.err.println("Valid OPTIONS are:");
+				System.err.println(" --cache <directory> - cache the generated rules and detected format for reuse by subsequent runs");
+				System.err.println(" --checkpoint <file> - execute Quality checks on only the records appended since the last run, tracked in <file>");
+				System.err.println(" --errors Text|JSONL|CSV - select the format of the individual Quality errors (default: Text)");
+				System.err.println(" --export <file> - write the rules to a compact binary file, which can be supplied as a --specification");
 				System.err.println(" --field <field name> - choose only a single field to process");
+				System.err.println(" --follow - continue to execute Quality checks on records as they are appended to the data file");
 				System.err.println(" --format Native|Glue - select format output (default: Native)");
+				System.err.println(" --mapped - use the memory-mapped fast path for Quality checks where possible (single-threaded only)");
+				System.err.println(" --maxErrors <n> - output at most <n> errors per field, further errors are only counted (default: unlimited)");
+				System.err.println(" --maxOneOf <n> - generate OneOf rules for String fields with a cardinality less than <n> (default: 10)");
+				System.err.println(" --merge <partial file> ... - merge the partial results from a set of --partition runs");
+				System.err.println(" --metrics <file> - collect timing and throughput metrics (visible via JMX) and write them as JSON to <file> (- for stderr) on exit");
+				System.err.println(" --partial <file> - write the partial result of a --partition run to <file>");
+				System.err.println(" --partition <i>/<n> - execute Quality checks on only the i'th (0-based) of n byte ranges of the data file");
+				System.err.println(" --precision <p> - stop a --qualitySample run once every 95% confidence interval is within +/- p (default: 0.01)");
+				System.err.println(" --profileAll - generate the rules by profiling the entire data file (default: first 100 rows)");
 				System.err.println(" --quality - Execute Quality checks");
-				System.err.println(" --specification <specification file> - Supply a JSON specification file");
+				System.err.println(" --qualitySample <n> - estimate the violation rates by executing Quality checks on at most <n> randomly sampled records");
+				System.err.println(" --sample <n> - generate the rules from a random sample of <n> rows drawn from the entire data file");
+				System.err.println(" --serve <port> - run as a server on the loopback interface, validating files or CSV posted to /validate");
+				System.err.println(" --seed <n> - seed for the random sampling (default: random)");
+				System.err.println(" --specification <specification file> - Supply a JSON specification file (or a binary file written by --export)");
+				System.err.println(" --summary - output a summary report once the Quality checks are complete");
+				System.err.println(" --threads <n> - number of threads to use for training and validation (default: 1)");
+				System.err.println(" --uniqueMemory <MB> - off-heap memory used to enforce Unique rules before spilling to disk (default: 256)");
 				System.err.println(" --verbose - output additional debugging information");
+				System.err.println(" --verifyTraining - verify that parallel training produces the same results as sequential training");
 				System.exit(1);
 			}
+			if ("--cache".equals(args[idx]))
+				options.cache = args[++idx];
+			if ("--checkpoint".equals(args[idx]))
+				options.checkpoint = args[++idx];
+			if ("--errors".equals(args[idx])) {
+				options.errors = args[++idx];
+				if (!BufferedErrorSink.isFormat(options.errors)) {
+					System.err.printf("ERROR: Unknown error format '%s', expected Text, JSONL or CSV.%n", options.errors);
+					System.exit(1);
+				}
+			}
+			if ("--export".equals(args[idx]))
+				options.export = args[++idx];
 			if ("--field".equals(args[idx]))
 				options.field = args[++idx];
+			if ("--follow".equals(args[idx]))
+				options.follow = true;
 			if ("--format".equals(args[idx]))
 				options.format = args[++idx];
+			if ("--mapped".equals(args[idx]))
+				options.mapped = true;
+			if ("--maxErrors".equals(args[idx]))
+				options.maxErrors = Integer.parseInt(args[++idx]);
+			if ("--maxOneOf".equals(args[idx]))
+				options.maxOneOf = Integer.parseInt(args[++idx]);
+			if ("--merge".equals(args[idx]))
+				merge = true;
+			if ("--metrics".equals(args[idx]))
+				Metrics.enable(args[++idx]);
+			if ("--partial".equals(args[idx]))
+				options.partial = args[++idx];
+			if ("--partition".equals(args[idx])) {
+				options.partition = args[++idx];
+				quality = true;
+			}
+			if ("--precision".equals(args[idx]))
+				options.precision = Double.parseDouble(args[++idx]);
+			if ("--profileAll".equals(args[idx]))
+				options.profileAll = true;
 			if ("--quality".equals(args[idx]))
 				quality = true;
+			if ("--qualitySample".equals(args[idx])) {
+				options.qualitySample = Integer.parseInt(args[++idx]);
+				quality = true;
+			}
+			if ("--summary".equals(args[idx]))
+				options.summary = true;
+			if ("--threads".equals(args[idx]))
+				options.threads = Integer.parseInt(args[++idx]);
+			if ("--sample".equals(args[idx]))
+				options.sample = Integer.parseInt(args[++idx]);
+			if ("--serve".equals(args[idx]))
+				serve = Integer.parseInt(args[++idx]);
+			if ("--seed".equals(args[idx]))
+				options.seed = Long.parseLong(args[++idx]);
 			if ("--specification".equals(args[idx]))
 				specificationFile = args[++idx];
 			else if ("--verbose".equals(args[idx]))
 				options.verbose = true;
+			if ("--uniqueMemory".equals(args[idx]))
+				options.uniqueMemory = Long.parseLong(args[++idx]);
+			if ("--verifyTraining".equals(args[idx]))
+				options.verifyTraining = true;
 			idx++;
 		}
 
+		// Keep the compiled rules warm and validate on request until the server is killed
+		if (serve != -1) {
+			try {
+				final int port = new ValidationServer(options, specificationFile).start(serve);
+				System.err.printf("Listening on http://%s:%d/validate%n", InetAddress.getLoopbackAddress().getHostAddress(), port);
+			} catch (IOException e) {
+				System.err.printf("ERROR: Failed to start server. %s%n", e.getMessage());
+				System.exit(1);
+			} catch (FTAException e) {
+				System.err.printf("ERROR: Failed to compile rules. %s%n", e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+
+		// Merge the partial results from a set of partitioned runs into the report for the entire file
+		if (merge) {
+			final ArrayList<QualityReport> partials = new ArrayList<>();
+			for (; idx < args.length; idx++) {
+				try {
+					partials.add(QualityReport.read(new File(args[idx])));
+				} catch (IOException e) {
+					System.err.printf("ERROR: Failed to read partial result '%s'. %s%n", args[idx], e.getMessage());
+					System.exit(1);
+				}
+			}
+			if (partials.isEmpty()) {
+				System.err.println("Require at least one partial result to merge.");
+				System.exit(1);
+			}
+			QualityReport.merge(partials).print(System.err);
+			return;
+		}
+
+		// Validate a set of files (or a directory or a glob) concurrently, with a single summary report
+		if (quality && options.partition == null && options.checkpoint == null && !options.follow && options.qualitySample == 0 && BatchQuality.isBatch(args, idx)) {
+			final ArrayList<RuleSet> allRuleSets = specificationFile == null ? null : generateRuleSetsFromSpecification(specificationFile, options);
+			try {
+				new BatchQuality(allRuleSets, options).execute(BatchQuality.expand(args, idx));
+			} catch (IOException e) {
+				System.err.printf("ERROR: Failed to list data files. %s%n", e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+
+		final String dataFile = idx < args.length ? args[idx] : null;
+
+		// Byte ranges and offsets are only meaningful for uncompressed files
+		if (dataFile != null && (options.partition != null || options.checkpoint != null || options.follow || options.qualitySample > 0) && isCompressed(dataFile)) {
+			System.err.printf("ERROR: Filename '%s' is compressed, --partition, --checkpoint, --follow and --qualitySample require an uncompressed file.%n", dataFile);
+			System.exit(1);
+		}
+		RuleCache cache = null;
+		String headerLine = null;
+		String rulesKey = null;
+		CsvFormat format = null;
 		ArrayList<RuleSet> allRuleSets = null;
-		// If we were supplied a Specification file then use it to generate the rules, otherwise generate them from the first <n> lines of the data file
-		if (specificationFile == null) {
-			if (idx == args.length) {
-				System.err.println("Require either a Specification file or a data file.");
+
+		// If we have a cache then try to avoid format detection and rule generation
+		if (options.cache != null) {
+			try {
+				cache = new RuleCache(options.cache);
+				headerLine = dataFile == null ? null : RuleCache.headerLine(dataFile);
+				if (headerLine != null) {
+					final RuleCache.Entry cachedFormat = cache.get(RuleCache.formatKey(headerLine));
+					// The key includes the header's terminator, but never parse with a line separator the file does not use
+					if (cachedFormat != null && cachedFormat.format != null && RuleCache.isCompatible(headerLine, cachedFormat.format))
+						format = cachedFormat.format;
+				}
+				if (specificationFile != null)
+					rulesKey = RuleCache.specificationKey(specificationFile, options);
+				else if (headerLine != null)
+					rulesKey = RuleCache.dataKey(headerLine, options);
+				final RuleCache.Entry cachedRules = rulesKey == null ? null : cache.get(rulesKey);
+				if (cachedRules != null)
+					allRuleSets = cachedRules.ruleSets;
+			} catch (IOException e) {
+				System.err.printf("ERROR: Cannot use cache '%s'. %s%n", options.cache, e.getMessage());
 				System.exit(1);
 			}
-			allRuleSets = generateRuleSetsFromDataFile(args[idx], options);
 		}
-		else
-			allRuleSets = generateRuleSetsFromSpecification(specificationFile, options);
 
+		// If we are generating the rules from the data file and then validating it, do both in a single pass
+		if (allRuleSets == null && quality && specificationFile == null && dataFile != null && options.sample == 0 && !options.profileAll && options.partition == null &&
+				options.checkpoint == null && !options.follow && options.qualitySample == 0) {
+			final RuleCache.Entry generated = profileAndValidate(dataFile, options);
+			updateCache(cache, rulesKey, headerLine, generated);
+			exportRules(generated.ruleSets, options);
+			return;
+		}
 
-		if (options.verbose || !quality) {
-			if (options.format == null || options.format.equalsIgnoreCase("native")) {
-				for (final RuleSet rules : allRuleSets)
-					if (rules.nonEmpty())
-						System.err.printf("%s%n", mapper.writerWithDefaultPrettyPrinter().writeValueAsString(rules.asJSON()));
+		// If we were supplied a Specification file then use it to generate the rules, otherwise generate them from the first <n> lines of the data file
+		if (allRuleSets == null) {
+			RuleCache.Entry generated;
+			if (specificationFile == null) {
+				if (dataFile == null) {
+					System.err.println("Require either a Specification file or a data file.");
+					System.exit(1);
+				}
+				generated = generateRuleSetsFromDataFile(dataFile, options);
 			}
-			else if (options.format.equalsIgnoreCase("glue")) {
-				System.err.println("Rules = [");
-				// Dump all the Rule Sets based on the format requested
-				for (final RuleSet rules : allRuleSets)
-					if (rules.nonEmpty())
-						System.err.printf("%s%n", rules.asDQDL());
+			else
+				generated = new RuleCache.Entry(null, null, generateRuleSetsFromSpecification(specificationFile, options));
+			updateCache(cache, rulesKey, headerLine, generated);
+			allRuleSets = generated.ruleSets;
+			if (format == null)
+				format = generated.format;
+		}
+
+		exportRules(allRuleSets, options);
 
+		if (options.verbose || !quality)
+			outputRules(allRuleSets, options);
+
+		if (quality) {
+			if (dataFile == null) {
+				System.err.println("Require a data file to execute Quality checks.");
+				System.exit(1);
+			}
+			if (options.checkpoint != null || options.follow) {
+				Quality.executeIncremental(dataFile, allRuleSets, options);
+				return;
 			}
+			if (options.qualitySample > 0) {
+				SampledQuality.execute(dataFile, allRuleSets, options);
+				return;
+			}
+			final CsvFormat used = Quality.execute(dataFile, format, allRuleSets, options);
+			if (format == null)
+				updateCache(cache, null, headerLine, new RuleCache.Entry(null, used, null));
+		}
+	}
+
+	private static boolean isCompressed(final String filename) {
+		try {
+			return CompressedInput.isCompressed(filename);
+		} catch (IOException e) {
+			return false;
 		}
+	}
 
-		if (quality)
-			Quality.execute(args[idx++], allRuleSets, options);
+	/*
+	 * Write the rules to the binary RuleSet file (if requested), which can subsequently be used as a --specification.
+	 */
+	private static void exportRules(final ArrayList<RuleSet> allRuleSets, final DriverOptions options) {
+		if (options.export == null)
+			return;
+		try {
+			RuleSetFile.write(options.export, allRuleSets);
+		} catch (IOException e) {
+			System.err.printf("ERROR: Failed to export rules to '%s'. %s%n", options.export, e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/*
+	 * Record the generated rules and the detected format in the cache (if we have one).
+	 */
+	private static void updateCache(final RuleCache cache, final String rulesKey, final String headerLine, final RuleCache.Entry generated) {
+		if (cache == null)
+			return;
+		try {
+			if (rulesKey != null && generated.ruleSets != null)
+				cache.put(rulesKey, new RuleCache.Entry(null, null, generated.ruleSets));
+			if (headerLine != null && generated.format != null)
+				cache.put(RuleCache.formatKey(headerLine), new RuleCache.Entry(generated.header, generated.format, null));
+		} catch (IOException e) {
+			System.err.printf("WARNING: Failed to update cache. %s%n", e.getMessage());
+		}
+	}
+
+	private static void outputRules(final ArrayList<RuleSet> allRuleSets, final DriverOptions options) throws JsonProcessingException {
+		if (options.format == null || options.format.equalsIgnoreCase("native")) {
+			for (final RuleSet rules : allRuleSets)
+				if (rules.nonEmpty())
+					System.err.printf("%s%n", mapper.writerWithDefaultPrettyPrinter().writeValueAsString(rules.asJSON()));
+		}
+		else if (options.format.equalsIgnoreCase("glue")) {
+			System.err.println("Rules = [");
+			// Dump all the Rule Sets based on the format requested
+			for (final RuleSet rules : allRuleSets)
+				if (rules.nonEmpty())
+					System.err.printf("%s%n", rules.asDQDL());
+
+		}
+	}
+
+	/*
+	 * Generate the rules from the first <n> rows of the data file and then validate the entire file in a single pass.
+	 * The rows used for training are buffered and validated once the rules are generated, validation then continues
+	 * from the same parser - so the file is opened, format detected and parsed only once.
+	 */
+	private static RuleCache.Entry profileAndValidate(final String filename, final DriverOptions options) throws JsonProcessingException, FTAPluginException, FTAUnsupportedLocaleException {
+		try (CsvInput input = new CsvInput(filename)) {
+			if (input.header == null) {
+				System.err.printf("ERROR: Cannot parse header for file '%s'%n", filename);
+				System.exit(1);
+			}
+
+			final List<String[]> prefix = readPrefix(input.parser);
+			final ArrayList<RuleSet> allRuleSets = generateRuleSetsFromRows(filename, input.header, trainingRows(prefix, input.header.length, false), options);
+
+			if (options.verbose)
+				outputRules(allRuleSets, options);
+
+			Quality.execute(input, prefix, allRuleSets, options);
+
+			return new RuleCache.Entry(input.header, input.getFormat(), allRuleSets);
+		}
+		catch (FileNotFoundException e) {
+			System.err.printf("ERROR: Filename '%s' not found.%n", filename);
+			System.exit(1);
+		}
+		catch (TextParsingException|java.lang.ArrayIndexOutOfBoundsException e) {
+			System.err.printf("ERROR: Filename '%s' Univocity exception. %s%n", filename, e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.err.printf("ERROR: Filename '%s' IOException. %s%n", filename, e.getMessage());
+			System.exit(1);
+		}
+
+		return null;
 	}
 
 	public static ArrayList<RuleSet> generateRuleSets(ProfileMetrics[] profiles, final DriverOptions options) {
+		final long start = System.nanoTime();
 		ArrayList<RuleSet> allRules = new ArrayList<>();
 		for (final ProfileMetrics profile : profiles) {
 			if (options.field != null && options.field.equals(profile.getName()))
 				continue;
-			allRules.add(profile.generateRuleSet());
+			allRules.add(profile.generateRuleSet(options.maxOneOf));
 		}
+		if (Metrics.isEnabled())
+			Metrics.INSTANCE.generate.since(start);
 
 		return allRules;
 	}
 
 	/*
 	 * Build a RuleSet from the FTA JSON output.
+	 * The specification is streamed, each profile is read (skipping the attributes not required), its RuleSet generated
+	 * and then the profile is discarded - so memory usage is independent of the size of the specification.
 	 */
-	private static ArrayList<RuleSet> generateRuleSetsFromSpecification(final String filename, final DriverOptions options) {
-		try (BufferedReader JSON = new BufferedReader(
-				new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8))) {
-			return generateRuleSets(mapper.readValue(JSON, JSONProfile[].class), options);
+	static ArrayList<RuleSet> generateRuleSetsFromSpecification(final String filename, final DriverOptions options) {
+		try {
+			// A previously exported binary RuleSet file can be used in place of a specification
+			if (RuleSetFile.isRuleSetFile(filename)) {
+				final ArrayList<RuleSet> allRules = new ArrayList<>();
+				for (final RuleSet ruleSet : RuleSetFile.read(filename))
+					if (options.field == null || !options.field.equals(ruleSet.getName()))
+						allRules.add(ruleSet);
+				return allRules;
+			}
+			return generateRuleSetsFromSpecification(new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8), options);
+		} catch (IOException e) {
+			throw new InternalErrorException("Issues with supplied specification file", e);
+		}
+	}
+
+	/*
+	 * Build a RuleSet from the FTA JSON output supplied by the reader (which is closed on completion).
+	 */
+	static ArrayList<RuleSet> generateRuleSetsFromSpecification(final Reader reader, final DriverOptions options) {
+		try (BufferedReader JSON = new BufferedReader(reader);
+				JsonParser parser = mapper.getFactory().createParser(JSON)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY)
+				throw new InternalErrorException("Specification file must contain an array of profiles");
+
+			final long start = System.nanoTime();
+			final ArrayList<RuleSet> allRules = new ArrayList<>();
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				final JSONProfile profile = JSONProfile.read(parser, options.maxOneOf);
+				if (options.field != null && options.field.equals(profile.getName()))
+					continue;
+				allRules.add(profile.generateRuleSet(options.maxOneOf));
+			}
+			if (Metrics.isEnabled())
+				Metrics.INSTANCE.generate.since(start);
+
+			return allRules;
 		} catch (Exception e) {
 			throw new InternalErrorException("Issues with supplied specification file", e);
 		}
@@ -128,54 +449,114 @@ public class Driver {
 	/*
 	 * Build a RuleSet by analyzing the first <n> rows of a file.
 	 */
-	private static ArrayList<RuleSet> generateRuleSetsFromDataFile(final String filename, final DriverOptions options) throws FTAPluginException, FTAUnsupportedLocaleException {
-		final CsvParserSettings settings = new CsvParserSettings();
-
-		settings.setHeaderExtractionEnabled(true);
-		settings.detectFormatAutomatically();
-		settings.setLineSeparatorDetectionEnabled(true);
-		settings.setIgnoreLeadingWhitespaces(false);
-		settings.setIgnoreTrailingWhitespaces(false);
-		settings.setEmptyValue("");
-		settings.setDelimiterDetectionEnabled(true, ',', '\t', '|', ';');
-
-		String[] header = null;
-		int numFields = 0;
-		long thisRecord = 0;
-		TextAnalyzer[] analyzers = null;
+	private static RuleCache.Entry generateRuleSetsFromDataFile(final String filename, final DriverOptions options) throws FTAPluginException, FTAUnsupportedLocaleException {
+		if (options.sample > 0)
+			return generateRuleSetsFromSample(filename, options);
 
-		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(new File(filename)), StandardCharsets.UTF_8))) {
-			final CsvParser parser = new CsvParser(settings);
-			parser.beginParsing(in);
-
-			header = parser.getRecordMetadata().headers();
+		try (CsvInput input = new CsvInput(filename)) {
+			final String[] header = input.header;
 			if (header == null) {
 				System.err.printf("ERROR: Cannot parse header for file '%s'%n", filename);
 				System.exit(1);
 			}
-			numFields = header.length;
-			analyzers = new TextAnalyzer[numFields];
 
-			for (int i = 0; i < numFields; i++)
-				analyzers[i] = new TextAnalyzer(new AnalyzerContext(header[i] == null ? "" : header[i].trim(),
-						DateResolutionMode.Auto, filename, header));
+			final ArrayList<RuleSet> allRuleSets;
+			if (options.profileAll)
+				allRuleSets = generateRuleSets(trainChunked(input.parser, filename, header, options).getProfiles(), options);
+			else
+				allRuleSets = generateRuleSetsFromRows(filename, header, trainingRows(readPrefix(input.parser), header.length, true), options);
+
+			return new RuleCache.Entry(header, input.getFormat(), allRuleSets);
+		}
+		catch (FileNotFoundException e) {
+			System.err.printf("ERROR: Filename '%s' not found.%n", filename);
+			System.exit(1);
+		}
+		catch (TextParsingException|java.lang.ArrayIndexOutOfBoundsException e) {
+			System.err.printf("ERROR: Filename '%s' Univocity exception. %s%n", filename, e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			System.err.printf("ERROR: Filename '%s' IOException. %s%n", filename, e.getMessage());
+			System.exit(1);
+		}
+
+		return null;
+	}
+
+	/*
+	 * Read the rows used to build the Semantic analysis.
+	 */
+	static List<String[]> readPrefix(final CsvParser parser) {
+		final List<String[]> prefix = new ArrayList<>(PREFIX_ROWS);
+		String[] row;
+
+		while (prefix.size() < PREFIX_ROWS && (row = parser.parseNext()) != null)
+			prefix.add(row);
 
-			String[] row;
+		return prefix;
+	}
 
-			while ((row = parser.parseNext()) != null) {
-				thisRecord++;
-				// Use the first 100 rows to build the Semantic analysis
-				if (thisRecord == 100)
-					break;
-				if (row.length != numFields) {
+	/*
+	 * Select the rows from the prefix to train on - the first 100 rows are read, the last of these and any with the
+	 * wrong number of fields are not used for training.
+	 */
+	static List<String[]> trainingRows(final List<String[]> prefix, final int numFields, final boolean report) {
+		final List<String[]> rows = new ArrayList<>(prefix.size());
+		for (int i = 0; i < prefix.size() && i < PREFIX_ROWS - 1; i++) {
+			final String[] row = prefix.get(i);
+			if (row.length != numFields) {
+				if (report)
 					System.err.printf("ERROR: Record %d has %d fields, expected %d, skipping%n",
-							thisRecord, row.length, numFields);
-					continue;
-				}
-				for (int i = 0; i < numFields; i++) {
-					analyzers[i].train(row[i]);
-				}
+							i + 1, row.length, numFields);
+				continue;
 			}
+			rows.add(row);
+		}
+
+		return rows;
+	}
+
+	/*
+	 * Build a RuleSet by training on the supplied rows (all of which have the correct number of fields).
+	 */
+	static ArrayList<RuleSet> generateRuleSetsFromRows(final String filename, final String[] header, final List<String[]> rows,
+			final DriverOptions options) throws FTAPluginException, FTAUnsupportedLocaleException {
+		final Trainer trainer = new Trainer(filename, header, options.maxOneOf);
+
+		if (options.threads > 1) {
+			final ExecutorService pool = Executors.newFixedThreadPool(options.threads);
+			try {
+				for (int i = 0; i < rows.size(); i += TRAINING_BATCH_SIZE)
+					trainer.train(rows.subList(i, Math.min(rows.size(), i + TRAINING_BATCH_SIZE)), pool, options.threads);
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+		else
+			for (final String[] row : rows)
+				trainer.train(row);
+
+		final ArrayList<RuleSet> ret = generateRuleSets(trainer.getProfiles(), options);
+
+		// If requested, train a second set of analyzers sequentially to verify the parallel results
+		if (options.verifyTraining) {
+			final Trainer sequential = new Trainer(filename, header, options.maxOneOf);
+			for (final String[] row : rows)
+				sequential.train(row);
+			verify(ret, generateRuleSets(sequential.getProfiles(), options));
+		}
+
+		return ret;
+	}
+
+	/*
+	 * Build a RuleSet by analyzing a random sample of rows drawn from the entire file.
+	 */
+	private static RuleCache.Entry generateRuleSetsFromSample(final String filename, final DriverOptions options) throws FTAPluginException, FTAUnsupportedLocaleException {
+		Sampler.Sample sample = null;
+		try {
+			sample = new Sampler(options.sample, options.seed == null ? new Random() : new Random(options.seed)).sample(filename);
 		}
 		catch (FileNotFoundException e) {
 			System.err.printf("ERROR: Filename '%s' not found.%n", filename);
@@ -189,11 +570,122 @@ public class Driver {
 			System.exit(1);
 		}
 
-		ProxyProfile[] results = new ProxyProfile[numFields];
+		if (sample.header == null) {
+			System.err.printf("ERROR: Cannot parse header for file '%s'%n", filename);
+			System.exit(1);
+		}
+
+		final int numFields = sample.header.length;
+		final List<String[]> rows = new ArrayList<>(sample.rows.size());
+		for (final String[] row : sample.rows)
+			if (row.length == numFields)
+				rows.add(row);
+		if (rows.size() != sample.rows.size())
+			System.err.printf("ERROR: %d sampled records did not have %d fields, skipping%n", sample.rows.size() - rows.size(), numFields);
+
+		return new RuleCache.Entry(sample.header, sample.format, generateRuleSetsFromRows(filename, sample.header, rows, options));
+	}
+
+	/*
+	 * Profile the entire file.  The rows are split into chunks and each chunk is trained on its own thread with its own
+	 * set of analyzers, the per-chunk analyzers are then merged (in file order) to produce a single result per column.
+	 * The number of chunks in flight is bounded so memory usage does not depend on the size of the file.
+	 * If requested, a second set of analyzers is trained sequentially (on the reading thread) to verify the merged results.
+	 */
+	private static Trainer trainChunked(final CsvParser parser, final String filename, final String[] header, final DriverOptions options)
+			throws FTAPluginException, FTAUnsupportedLocaleException {
+		final int numFields = header.length;
+		long thisRecord = 0;
+		String[] row;
+
+		if (options.threads <= 1) {
+			final Trainer trainer = new Trainer(filename, header, options.maxOneOf);
+			while ((row = parser.parseNext()) != null) {
+				thisRecord++;
+				if (row.length != numFields) {
+					System.err.printf("ERROR: Record %d has %d fields, expected %d, skipping%n",
+							thisRecord, row.length, numFields);
+					continue;
+				}
+				trainer.train(row);
+			}
+			return trainer;
+		}
 
-		for (int i = 0; i < numFields; i++)
-			results[i] = new ProxyProfile(analyzers[i].getResult());
+		final ExecutorService pool = Executors.newFixedThreadPool(options.threads);
+		final Deque<Future<Trainer>> inFlight = new ArrayDeque<>();
+		final Trainer sequential = options.verifyTraining ? new Trainer(filename, header, options.maxOneOf) : null;
+		Trainer merged = null;
 
-		return generateRuleSets(results, options);
+		try {
+			List<String[]> chunk = new ArrayList<>(PROFILE_CHUNK_SIZE);
+			while ((row = parser.parseNext()) != null) {
+				thisRecord++;
+				if (row.length != numFields) {
+					System.err.printf("ERROR: Record %d has %d fields, expected %d, skipping%n",
+							thisRecord, row.length, numFields);
+					continue;
+				}
+				chunk.add(row);
+				if (sequential != null)
+					sequential.train(row);
+				if (chunk.size() == PROFILE_CHUNK_SIZE) {
+					if (inFlight.size() == 2 * options.threads)
+						merged = merge(merged, inFlight.removeFirst().get());
+					inFlight.addLast(pool.submit(trainChunk(chunk, filename, header, options.maxOneOf)));
+					chunk = new ArrayList<>(PROFILE_CHUNK_SIZE);
+				}
+			}
+			if (!chunk.isEmpty())
+				inFlight.addLast(pool.submit(trainChunk(chunk, filename, header, options.maxOneOf)));
+
+			while (!inFlight.isEmpty())
+				merged = merge(merged, inFlight.removeFirst().get());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException("Training interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw Trainer.rethrow(e);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+
+		final Trainer ret = merged == null ? new Trainer(filename, header, options.maxOneOf) : merged;
+		if (sequential != null)
+			verify(generateRuleSets(ret.getProfiles(), options), generateRuleSets(sequential.getProfiles(), options));
+
+		return ret;
+	}
+
+	private static Callable<Trainer> trainChunk(final List<String[]> chunk, final String filename, final String[] header, final int maxOneOf) {
+		return () -> {
+			final Trainer trainer = new Trainer(filename, header, maxOneOf);
+			for (final String[] row : chunk)
+				trainer.train(row);
+			return trainer;
+		};
+	}
+
+	private static Trainer merge(final Trainer merged, final Trainer next) throws FTAPluginException, FTAUnsupportedLocaleException {
+		if (merged == null)
+			return next;
+		merged.merge(next);
+		return merged;
+	}
+
+	/*
+	 * Report any differences between the RuleSets generated by the parallel and sequential training.
+	 */
+	private static void verify(final ArrayList<RuleSet> parallel, final ArrayList<RuleSet> sequential) {
+		int differences = 0;
+		for (int i = 0; i < parallel.size(); i++)
+			if (!parallel.get(i).asJSON().equals(sequential.get(i).asJSON())) {
+				System.err.printf("ERROR: Training differs from sequential training for field '%s'%n", parallel.get(i).getName());
+				differences++;
+			}
+		System.err.printf("Training verification: %d of %d fields differ%n", differences, parallel.size());
 	}
 }
@@ -19,4 +19,23 @@ class DriverOptions {
 	public String field;
 	public String format;
 	public boolean verbose;
+	public int threads = 1;
+	public boolean summary;
+	public String partition;
+	public String partial;
+	public boolean verifyTraining;
+	public boolean profileAll;
+	public int sample;
+	public Long seed;
+	public boolean mapped;
+	public String errors = "Text";
+	public int maxErrors = Integer.MAX_VALUE;
+	public int maxOneOf = ProfileMetrics.MAX_ONE_OF_CARDINALITY;
+	public long uniqueMemory = 256;
+	public String cache;
+	public String checkpoint;
+	public boolean follow;
+	public String export;
+	public int qualitySample;
+	public double precision = 0.01;
 }
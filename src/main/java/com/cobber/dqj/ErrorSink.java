@@ -0,0 +1,33 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.Closeable;
+
+/**
+ * The destination for the individual errors detected while validating a file.
+ * Errors are supplied in record order, except for duplicates (violations of the Unique rule) which can only be
+ * detected once all the records have been read.  Implementations are not required to be thread-safe.
+ */
+public interface ErrorSink extends RecordErrors, Closeable {
+	/**
+	 * Report a value that duplicates an earlier value in a field with a Unique rule.
+	 * @param field The index of the field.
+	 * @param record The record number of the duplicate.
+	 * @param previous The record number of an earlier occurrence of the same value.
+	 */
+	void duplicate(int field, long record, long previous);
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * A set of 128-bit fingerprints (each with the record it was first seen on) used to detect duplicate values.
+ *  - The set is an open-addressed (linear probing) table held off-heap in a direct ByteBuffer, so heap usage does not
+ *    depend on the number of values.
+ *  - When the table reaches its maximum load it is sorted and spilled to a run file on disk and then emptied.
+ *  - Duplicates within the table are detected as they are added, duplicates across runs are detected by merging the
+ *    runs once all the values have been added.
+ * Duplicates detected as the values are added are logged to disk rather than retained on the heap.
+ */
+class FingerprintTable implements Closeable {
+	/* Each entry is the two halves of the fingerprint followed by the record number. */
+	private static final int ENTRY_SIZE = 24;
+	private static final double LOAD_FACTOR = 0.7;
+	private static final int MAX_CAPACITY = 1 << 26;
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+	/*
+	 * Receives the duplicates - the record containing the duplicate and the record of an earlier occurrence.
+	 */
+	interface DuplicateHandler {
+		void duplicate(long record, long previous);
+	}
+
+	private final ByteBuffer table;
+	private final int mask;
+	private final int maxSize;
+	private int size;
+	private final List<Path> runs = new ArrayList<>();
+	private Path duplicateLog;
+	private DataOutputStream duplicates;
+
+	FingerprintTable(final long budget) {
+		int capacity = 1 << 10;
+		while (capacity < MAX_CAPACITY && (long)capacity * 2 * ENTRY_SIZE <= budget)
+			capacity *= 2;
+		table = ByteBuffer.allocateDirect(capacity * ENTRY_SIZE);
+		mask = capacity - 1;
+		maxSize = (int)(capacity * LOAD_FACTOR);
+	}
+
+	/*
+	 * Add a fingerprint to the table, if it is already in the table the duplicate is logged.
+	 */
+	void add(final long hi, long lo, final long record) throws IOException {
+		// An all-zero fingerprint marks an empty slot
+		if (hi == 0 && lo == 0)
+			lo = 1;
+
+		int slot = (int)hi & mask;
+		while (true) {
+			final int offset = slot * ENTRY_SIZE;
+			final long h = table.getLong(offset);
+			final long l = table.getLong(offset + 8);
+			if (h == 0 && l == 0) {
+				table.putLong(offset, hi);
+				table.putLong(offset + 8, lo);
+				table.putLong(offset + 16, record);
+				if (++size == maxSize)
+					spill();
+				return;
+			}
+			if (h == hi && l == lo) {
+				logDuplicate(record, table.getLong(offset + 16));
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void logDuplicate(final long record, final long previous) throws IOException {
+		if (duplicates == null) {
+			duplicateLog = Files.createTempFile("dqj-unique", ".dup");
+			duplicates = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(duplicateLog), IO_BUFFER_SIZE));
+		}
+		duplicates.writeLong(record);
+		duplicates.writeLong(previous);
+	}
+
+	/*
+	 * Sort the entries in the table and write them to a new run, leaving the table empty.
+	 */
+	private void spill() throws IOException {
+		final int entries = sortEntries();
+		final Path run = Files.createTempFile("dqj-unique", ".run");
+		runs.add(run);
+		try (FileChannel channel = FileChannel.open(run, StandardOpenOption.WRITE)) {
+			final ByteBuffer contents = table.duplicate();
+			contents.position(0);
+			contents.limit(entries * ENTRY_SIZE);
+			while (contents.hasRemaining())
+				channel.write(contents);
+		}
+		for (int offset = 0; offset < entries * ENTRY_SIZE; offset += 8)
+			table.putLong(offset, 0);
+		size = 0;
+	}
+
+	/*
+	 * Move all the entries to the front of the table and sort them, returns the number of entries.
+	 * Once sorted the table is no longer usable as a hash table until it is emptied.
+	 */
+	private int sortEntries() {
+		int entries = 0;
+		for (int slot = 0; slot <= mask; slot++) {
+			final int offset = slot * ENTRY_SIZE;
+			final long h = table.getLong(offset);
+			final long l = table.getLong(offset + 8);
+			if (h == 0 && l == 0)
+				continue;
+			if (slot != entries) {
+				final int target = entries * ENTRY_SIZE;
+				table.putLong(target, h);
+				table.putLong(target + 8, l);
+				table.putLong(target + 16, table.getLong(offset + 16));
+				table.putLong(offset, 0);
+				table.putLong(offset + 8, 0);
+			}
+			entries++;
+		}
+		sort(0, entries - 1);
+		return entries;
+	}
+
+	/*
+	 * In-place quicksort of the entries [low, high] by fingerprint, recursing on the smaller partition to bound the depth.
+	 */
+	private void sort(int low, int high) {
+		while (high - low > 16) {
+			final int mid = (low + high) >>> 1;
+			if (compare(mid, low) < 0)
+				swap(mid, low);
+			if (compare(high, low) < 0)
+				swap(high, low);
+			if (compare(high, mid) < 0)
+				swap(high, mid);
+			final long pivotHi = table.getLong(mid * ENTRY_SIZE);
+			final long pivotLo = table.getLong(mid * ENTRY_SIZE + 8);
+
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (compare(i, pivotHi, pivotLo) < 0)
+					i++;
+				while (compare(j, pivotHi, pivotLo) > 0)
+					j--;
+				if (i <= j)
+					swap(i++, j--);
+			}
+			if (j - low < high - i) {
+				sort(low, j);
+				low = i;
+			}
+			else {
+				sort(i, high);
+				high = j;
+			}
+		}
+
+		// Insertion sort for the small partitions
+		for (int i = low + 1; i <= high; i++)
+			for (int j = i; j > low && compare(j, j - 1) < 0; j--)
+				swap(j, j - 1);
+	}
+
+	private int compare(final int a, final int b) {
+		return compare(a, table.getLong(b * ENTRY_SIZE), table.getLong(b * ENTRY_SIZE + 8));
+	}
+
+	private int compare(final int a, final long hi, final long lo) {
+		final int ret = Long.compare(table.getLong(a * ENTRY_SIZE), hi);
+		return ret != 0 ? ret : Long.compare(table.getLong(a * ENTRY_SIZE + 8), lo);
+	}
+
+	private void swap(final int a, final int b) {
+		final int offsetA = a * ENTRY_SIZE;
+		final int offsetB = b * ENTRY_SIZE;
+		for (int i = 0; i < ENTRY_SIZE; i += 8) {
+			final long t = table.getLong(offsetA + i);
+			table.putLong(offsetA + i, table.getLong(offsetB + i));
+			table.putLong(offsetB + i, t);
+		}
+	}
+
+	/*
+	 * Report all the duplicates - first those detected as the values were added, then those detected by merging
+	 * the runs.  Within a set of identical fingerprints the earliest record is the original, every other is a duplicate.
+	 */
+	void finish(final DuplicateHandler handler) throws IOException {
+		if (duplicates != null) {
+			duplicates.close();
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(duplicateLog), IO_BUFFER_SIZE))) {
+				while (true) {
+					final long record;
+					try {
+						record = in.readLong();
+					} catch (EOFException e) {
+						break;
+					}
+					handler.duplicate(record, in.readLong());
+				}
+			}
+		}
+
+		if (runs.isEmpty())
+			return;
+
+		final PriorityQueue<Cursor> queue = new PriorityQueue<>();
+		final List<Cursor> cursors = new ArrayList<>();
+		try {
+			for (final Path run : runs)
+				cursors.add(new RunCursor(run));
+			cursors.add(new TableCursor(sortEntries()));
+			for (final Cursor cursor : cursors)
+				if (cursor.next())
+					queue.add(cursor);
+
+			long groupHi = 0;
+			long groupLo = 0;
+			long groupRecord = -1;
+			while (!queue.isEmpty()) {
+				final Cursor cursor = queue.poll();
+				if (groupRecord != -1 && cursor.hi == groupHi && cursor.lo == groupLo)
+					handler.duplicate(cursor.record, groupRecord);
+				else {
+					groupHi = cursor.hi;
+					groupLo = cursor.lo;
+					groupRecord = cursor.record;
+				}
+				if (cursor.next())
+					queue.add(cursor);
+			}
+		}
+		finally {
+			for (final Cursor cursor : cursors)
+				cursor.close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (duplicates != null) {
+			duplicates.close();
+			Files.deleteIfExists(duplicateLog);
+		}
+		for (final Path run : runs)
+			Files.deleteIfExists(run);
+	}
+
+	/*
+	 * A position in a sorted sequence of entries, ordered by fingerprint and then record.
+	 */
+	private abstract static class Cursor implements Comparable<Cursor>, Closeable {
+		long hi;
+		long lo;
+		long record;
+
+		abstract boolean next() throws IOException;
+
+		@Override
+		public int compareTo(final Cursor other) {
+			int ret = Long.compare(hi, other.hi);
+			if (ret == 0)
+				ret = Long.compare(lo, other.lo);
+			return ret != 0 ? ret : Long.compare(record, other.record);
+		}
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	private static final class RunCursor extends Cursor {
+		private final DataInputStream in;
+
+		RunCursor(final Path run) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER_SIZE));
+		}
+
+		@Override
+		boolean next() throws IOException {
+			try {
+				hi = in.readLong();
+			} catch (EOFException e) {
+				return false;
+			}
+			lo = in.readLong();
+			record = in.readLong();
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	private final class TableCursor extends Cursor {
+		private final int entries;
+		private int index = -1;
+
+		TableCursor(final int entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		boolean next() {
+			if (++index == entries)
+				return false;
+			final int offset = index * ENTRY_SIZE;
+			hi = table.getLong(offset);
+			lo = table.getLong(offset + 8);
+			record = table.getLong(offset + 16);
+			return true;
+		}
+	}
+}
@@ -15,13 +15,19 @@
  */
 package com.cobber.dqj;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import com.cobber.fta.AnalysisConfig;
 import com.cobber.fta.core.FTAType;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 @JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY)
 public class JSONProfile implements ProfileMetrics {
@@ -165,4 +171,128 @@ public class JSONProfile implements ProfileMetrics {
 		return Arrays.stream(cardinalityDetail)
 		        .collect(Collectors.toMap(d -> d.key, d -> d.count));
 	}
+
+	/**
+	 * Read a single profile from a streaming parser, only the attributes required to generate the RuleSet are
+	 * retained - all other attributes (e.g. topK, percentiles, histogram, shapesDetail) are skipped without being
+	 * materialized.
+	 * @param parser The parser, positioned on the START_OBJECT token of the profile.
+	 * @return The profile, the parser is left positioned on the corresponding END_OBJECT token.
+	 * @throws IOException If the profile cannot be parsed.
+	 */
+	static JSONProfile read(final JsonParser parser) throws IOException {
+		return read(parser, ProfileMetrics.MAX_ONE_OF_CARDINALITY);
+	}
+
+	/**
+	 * Read a single profile from a streaming parser (see above).
+	 * @param parser The parser, positioned on the START_OBJECT token of the profile.
+	 * @param maxOneOfCardinality The cardinality detail is only retained if the cardinality is less than this.
+	 * @return The profile, the parser is left positioned on the corresponding END_OBJECT token.
+	 * @throws IOException If the profile cannot be parsed.
+	 */
+	static JSONProfile read(final JsonParser parser, final int maxOneOfCardinality) throws IOException {
+		final JSONProfile ret = new JSONProfile();
+		boolean typeSeen = false;
+		boolean cardinalitySeen = false;
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken token = parser.nextToken();
+			switch (field) {
+			case "fieldName":
+				ret.fieldName = text(parser);
+				break;
+			case "type":
+				ret.type = text(parser);
+				typeSeen = true;
+				break;
+			case "isSemanticType":
+				ret.isSemanticType = token == JsonToken.VALUE_TRUE;
+				break;
+			case "semanticType":
+				ret.semanticType = text(parser);
+				break;
+			case "typeModifier":
+				ret.typeModifier = text(parser);
+				break;
+			case "regExp":
+				ret.regExp = text(parser);
+				break;
+			case "min":
+				ret.min = text(parser);
+				break;
+			case "max":
+				ret.max = text(parser);
+				break;
+			case "nullCount":
+				ret.nullCount = parser.getLongValue();
+				break;
+			case "blankCount":
+				ret.blankCount = parser.getLongValue();
+				break;
+			case "totalNullCount":
+				ret.totalNullCount = parser.getLongValue();
+				break;
+			case "totalBlankCount":
+				ret.totalBlankCount = parser.getLongValue();
+				break;
+			case "uniqueness":
+				ret.uniqueness = parser.getDoubleValue();
+				break;
+			case "leadingWhiteSpace":
+				ret.leadingWhiteSpace = token == JsonToken.VALUE_TRUE;
+				break;
+			case "trailingWhiteSpace":
+				ret.trailingWhiteSpace = token == JsonToken.VALUE_TRUE;
+				break;
+			case "cardinality":
+				ret.cardinality = parser.getIntValue();
+				cardinalitySeen = true;
+				break;
+			case "cardinalityDetail":
+				// The detail is only used to generate OneOf Rules, so if we already know it is not needed then skip it.
+				// A cardinality at FTA's default bound may mean the detail was truncated, so it cannot be used either.
+				if (ret.isSemanticType || (typeSeen && !"String".equalsIgnoreCase(ret.type)) ||
+						(cardinalitySeen && (ret.cardinality == 0 || ret.cardinality >= maxOneOfCardinality ||
+								ret.cardinality >= AnalysisConfig.MAX_CARDINALITY_DEFAULT)))
+					parser.skipChildren();
+				else
+					ret.cardinalityDetail = readDetail(parser);
+				break;
+			default:
+				parser.skipChildren();
+				break;
+			}
+		}
+
+		if (ret.cardinalityDetail == null || ret.cardinality >= AnalysisConfig.MAX_CARDINALITY_DEFAULT)
+			ret.cardinalityDetail = new DetailEntry[0];
+
+		return ret;
+	}
+
+	private static String text(final JsonParser parser) throws IOException {
+		return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getText();
+	}
+
+	private static DetailEntry[] readDetail(final JsonParser parser) throws IOException {
+		final List<DetailEntry> entries = new ArrayList<>();
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			final DetailEntry entry = new DetailEntry();
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.getCurrentName();
+				parser.nextToken();
+				if ("key".equals(field))
+					entry.key = text(parser);
+				else if ("count".equals(field))
+					entry.count = parser.getLongValue();
+				else
+					parser.skipChildren();
+			}
+			entries.add(entry);
+		}
+
+		return entries.toArray(new DetailEntry[0]);
+	}
 }
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+import com.univocity.parsers.csv.CsvFormat;
+import com.univocity.parsers.csv.CsvParser;
+
+/*
+ * A fast path for validating a CSV file, the file is memory-mapped and scanned at the byte level.  Cells are
+ * presented to the ColumnValidators as a view (offset/length) onto the mapped file, a String is only created if a
+ * check needs one or an error needs to be reported.
+ * Cells which contain non-ASCII characters, escaped quotes or embedded newlines are materialized as Strings, and any
+ * record that is not well-formed (e.g. content following a closing quote) is handed to Univocity to parse, so the
+ * values seen by the checks are the same as those returned by the CsvParser.
+ */
+class MappedCsvValidator {
+	/* The size of the window onto the file, records are never split across windows. */
+	private static final long WINDOW_SIZE = 1L << 30;
+
+	private static final byte QUOTED = 1;
+	private static final byte HIGH = 2;
+	private static final byte ESCAPED = 4;
+
+	private final String filename;
+	private final String[] header;
+	private final ColumnValidator[] validators;
+	private final int numFields;
+	private final byte delimiter;
+	private final byte comment;
+	private final boolean crlf;
+	private final CsvParser lineParser;
+
+	// The state of the record currently being scanned
+	private final int[] starts;
+	private final int[] ends;
+	private final byte[] flags;
+	private final ByteCell[] cells;
+	private final CharSequence[] values;
+	private int fieldCount;
+	private boolean irregular;
+	private boolean skip;
+
+	MappedCsvValidator(final String filename, final String[] header, final CsvFormat format, final ColumnValidator[] validators) {
+		this.filename = filename;
+		this.header = header;
+		this.validators = validators;
+		numFields = header.length;
+		delimiter = (byte)format.getDelimiter();
+		comment = (byte)format.getComment();
+		crlf = "\r\n".equals(format.getLineSeparatorString());
+		lineParser = new CsvParser(CsvInput.knownSettings(format));
+
+		starts = new int[numFields];
+		ends = new int[numFields];
+		flags = new byte[numFields];
+		cells = new ByteCell[numFields];
+		for (int i = 0; i < numFields; i++)
+			cells[i] = new ByteCell();
+		values = new CharSequence[numFields];
+	}
+
+	/*
+	 * Is the format one that can be handled by the fast path?
+	 */
+	static boolean supports(final CsvFormat format) {
+		final String lineSeparator = format.getLineSeparatorString();
+		return format.getQuote() == '"' && format.getQuoteEscape() == '"' && format.getDelimiter() < 0x80 &&
+				("\n".equals(lineSeparator) || "\r\n".equals(lineSeparator));
+	}
+
+	/*
+	 * Validate the file, returns false (before any records are validated) if the header as scanned does not agree with
+	 * the header as parsed by Univocity, in which case the caller should use the standard path.
+	 */
+	boolean run(final QualityReport report, final ErrorSink errors, final UniqueChecker unique) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			long windowStart = 0;
+			MappedByteBuffer buffer = map(channel, windowStart, size);
+			boolean atEOF = buffer.limit() == size;
+			int pos = hasBOM(buffer) ? 3 : 0;
+			boolean headerChecked = false;
+			long thisRecord = 0;
+
+			while (windowStart + pos < size) {
+				final boolean sampled = Metrics.isSampled(thisRecord + 1);
+				final long start = sampled ? System.nanoTime() : 0;
+				final int end = scan(buffer, pos, atEOF);
+				if (sampled)
+					Metrics.INSTANCE.parse.since(start);
+				if (end < 0) {
+					// The record spans the end of the window, so remap starting at the record
+					if (pos == 0)
+						throw new IOException("Record at offset " + windowStart + " is too long");
+					windowStart += pos;
+					buffer = map(channel, windowStart, size);
+					atEOF = windowStart + buffer.limit() == size;
+					pos = 0;
+					continue;
+				}
+
+				if (!skip) {
+					if (!headerChecked) {
+						if (irregular || !matchesHeader(buffer))
+							return false;
+						headerChecked = true;
+					}
+					else if (irregular) {
+						final String[] row = lineParser.parseLine(decodeRecord(buffer, pos, end));
+						thisRecord++;
+						if (unique != null)
+							unique.add(thisRecord, row);
+						Quality.validateRow(row, thisRecord, header, validators, report, errors);
+					}
+					else {
+						validate(buffer, ++thisRecord, report, errors);
+						if (unique != null && fieldCount == numFields)
+							unique.add(thisRecord, values);
+					}
+				}
+				pos = end;
+			}
+		}
+
+		return true;
+	}
+
+	private static MappedByteBuffer map(final FileChannel channel, final long start, final long size) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+	}
+
+	private static boolean hasBOM(final ByteBuffer buffer) {
+		return buffer.limit() >= 3 && buffer.get(0) == (byte)0xEF && buffer.get(1) == (byte)0xBB && buffer.get(2) == (byte)0xBF;
+	}
+
+	private boolean matchesHeader(final ByteBuffer buffer) {
+		if (fieldCount != numFields)
+			return false;
+		for (int i = 0; i < numFields; i++) {
+			final CharSequence value = value(buffer, i);
+			if (!Objects.equals(header[i], value == null ? null : value.toString()))
+				return false;
+		}
+		return true;
+	}
+
+	private void validate(final ByteBuffer buffer, final long thisRecord, final QualityReport report, final ErrorSink errors) {
+		report.addRecord();
+		if (Metrics.isEnabled())
+			Metrics.INSTANCE.addRecord(numFields, fieldCount == numFields);
+		if (fieldCount != numFields) {
+			report.addMalformed();
+			errors.malformed(thisRecord, fieldCount, numFields);
+			return;
+		}
+
+		final boolean sampled = Metrics.isSampled(thisRecord);
+		final long rowStart = sampled ? System.nanoTime() : 0;
+		for (int i = 0; i < numFields; i++) {
+			final CharSequence value = value(buffer, i);
+			values[i] = value;
+			report.addValue(i, value);
+			final boolean valid;
+			if (sampled) {
+				final long start = System.nanoTime();
+				valid = validators[i].isValidTimed(value);
+				Metrics.INSTANCE.fieldCheck(header[i]).since(start);
+			}
+			else
+				valid = validators[i].isValid(value);
+			if (!valid) {
+				final String content = value == null ? null : value.toString();
+				report.addError(i, thisRecord, content);
+				errors.error(i, thisRecord, content);
+				if (Metrics.isEnabled())
+					Metrics.INSTANCE.addViolation(header[i]);
+			}
+		}
+		if (sampled)
+			Metrics.INSTANCE.check.since(rowStart);
+	}
+
+	/*
+	 * Return the value of field i of the current record - either a view onto the buffer or, if necessary, a String.
+	 */
+	private CharSequence value(final ByteBuffer buffer, final int i) {
+		final int start = starts[i];
+		final int length = ends[i] - start;
+
+		if (length == 0)
+			return (flags[i] & QUOTED) != 0 ? "" : null;
+		if ((flags[i] & (HIGH | ESCAPED)) == 0) {
+			cells[i].set(buffer, start, length);
+			return cells[i];
+		}
+
+		String ret = decode(buffer, start, length);
+		if ((flags[i] & ESCAPED) != 0) {
+			ret = ret.replace("\"\"", "\"");
+			if (crlf)
+				ret = ret.replace("\r\n", "\n");
+		}
+
+		return ret;
+	}
+
+	private static String decode(final ByteBuffer buffer, final int start, final int length) {
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = buffer.get(start + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Decode an entire record (excluding the line terminator) so it can be handed to Univocity.
+	 */
+	private String decodeRecord(final ByteBuffer buffer, final int start, final int end) {
+		int length = end - start;
+		if (length > 0 && buffer.get(start + length - 1) == '\n')
+			length--;
+		if (length > 0 && buffer.get(start + length - 1) == '\r')
+			length--;
+		return decode(buffer, start, length);
+	}
+
+	/*
+	 * Scan the record starting at pos, recording the location of each field.
+	 * Returns the offset of the start of the next record, or -1 if the record is not complete within the buffer.
+	 */
+	private int scan(final ByteBuffer buffer, final int pos, final boolean atEOF) {
+		final int limit = buffer.limit();
+		int p = pos;
+		fieldCount = 0;
+		irregular = false;
+		skip = false;
+
+		// Empty lines and comments are skipped (and do not count as records)
+		byte c = buffer.get(p);
+		if (c == '\n' || (c == '\r' && crlf) || (comment != 0 && c == comment)) {
+			skip = true;
+			while (p < limit && buffer.get(p) != '\n')
+				p++;
+			if (p == limit)
+				return atEOF ? limit : -1;
+			return p + 1;
+		}
+
+		while (true) {
+			int start = p;
+			int end;
+			byte flag = 0;
+
+			if (p < limit && buffer.get(p) == '"') {
+				flag = QUOTED;
+				start = ++p;
+				while (true) {
+					if (p >= limit) {
+						if (!atEOF)
+							return -1;
+						// Unterminated quote - let Univocity sort it out
+						irregular = true;
+						break;
+					}
+					c = buffer.get(p);
+					if (c == '"') {
+						if (p + 1 >= limit && !atEOF)
+							return -1;
+						if (p + 1 < limit && buffer.get(p + 1) == '"') {
+							flag |= ESCAPED;
+							p += 2;
+							continue;
+						}
+						break;
+					}
+					if (c == '\n' || c == '\r')
+						flag |= ESCAPED;
+					else if (c < 0)
+						flag |= HIGH;
+					p++;
+				}
+				end = p;
+				if (p < limit)
+					p++;
+				// Anything other than a delimiter or the end of the record after the closing quote is irregular
+				if (p < limit) {
+					c = buffer.get(p);
+					if (c != delimiter && c != '\n' && !(c == '\r' && crlf)) {
+						irregular = true;
+						while (p < limit && buffer.get(p) != delimiter && buffer.get(p) != '\n')
+							p++;
+					}
+				}
+			}
+			else {
+				while (p < limit) {
+					c = buffer.get(p);
+					if (c == delimiter || c == '\n')
+						break;
+					if (c < 0)
+						flag |= HIGH;
+					p++;
+				}
+				if (p >= limit && !atEOF)
+					return -1;
+				end = p;
+				if (crlf && end > start && buffer.get(end - 1) == '\r')
+					end--;
+			}
+
+			if (fieldCount < numFields) {
+				starts[fieldCount] = start;
+				ends[fieldCount] = end;
+				flags[fieldCount] = flag;
+			}
+			fieldCount++;
+
+			if (p >= limit)
+				return limit;
+			c = buffer.get(p);
+			if (c == '\n')
+				return p + 1;
+			if (c == '\r') {
+				if (p + 1 >= limit)
+					return atEOF ? limit : -1;
+				if (buffer.get(p + 1) == '\n')
+					return p + 2;
+				irregular = true;
+			}
+			// Must be a delimiter, step over it to the next field
+			p++;
+			if (p >= limit) {
+				if (!atEOF)
+					return -1;
+				// A trailing delimiter at the end of the file introduces an empty final field
+				if (fieldCount < numFields)
+					starts[fieldCount] = ends[fieldCount] = flags[fieldCount] = 0;
+				fieldCount++;
+				return limit;
+			}
+		}
+	}
+
+	/*
+	 * A view onto a cell in the mapped file - only used for cells that are entirely ASCII.
+	 */
+	static final class ByteCell implements CharSequence {
+		private ByteBuffer buffer;
+		private int offset;
+		private int length;
+
+		void set(final ByteBuffer buffer, final int offset, final int length) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(final int index) {
+			return (char)buffer.get(offset + index);
+		}
+
+		@Override
+		public CharSequence subSequence(final int start, final int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			final byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++)
+				bytes[i] = buffer.get(offset + i);
+			return new String(bytes, StandardCharsets.ISO_8859_1);
+		}
+	}
+}
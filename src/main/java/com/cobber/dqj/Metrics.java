@@ -0,0 +1,302 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.univocity.parsers.csv.CsvParser;
+
+/**
+ * Counters and timers for profiling and validation runs, collected only if enabled (see --metrics).
+ * Counters use LongAdders so updates from many threads do not contend.  The per-record timers (parsing and the
+ * individual checks) are sampled - only one record in every SAMPLE_RATE is timed and the totals are scaled
+ * accordingly - so the cost of collection is a couple of counter increments per record.  The coarse timers (training,
+ * rule generation) time every call.
+ */
+public final class Metrics implements MetricsMBean {
+	/** Time one record in every SAMPLE_RATE (must be a power of 2). */
+	static final int SAMPLE_RATE = 64;
+	private static final long SAMPLE_MASK = SAMPLE_RATE - 1;
+
+	static final Metrics INSTANCE = new Metrics();
+	private static volatile boolean enabled;
+
+	private volatile long startNanos = System.nanoTime();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder cells = new LongAdder();
+	private final LongAdder malformed = new LongAdder();
+	private final LongAdder violations = new LongAdder();
+	private final Map<String, Timer> stages = new ConcurrentHashMap<>();
+	private final Map<String, Timer> rules = new ConcurrentHashMap<>();
+	private final Map<String, Field> fields = new ConcurrentHashMap<>();
+
+	final Timer parse = stage("parse", true);
+	final Timer check = stage("check", true);
+	final Timer train = stage("train", false);
+	final Timer generate = stage("generate", false);
+
+	/*
+	 * The accumulated time for an activity, if sampled then only one in SAMPLE_RATE occurrences is timed.
+	 */
+	static final class Timer {
+		private final boolean sampled;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+
+		Timer(final boolean sampled) {
+			this.sampled = sampled;
+		}
+
+		void record(final long elapsed) {
+			count.increment();
+			nanos.add(elapsed);
+		}
+
+		/* Time since the supplied start (from System.nanoTime()). */
+		void since(final long start) {
+			record(System.nanoTime() - start);
+		}
+
+		long estimatedNanos() {
+			return sampled ? nanos.sum() * SAMPLE_RATE : nanos.sum();
+		}
+
+		ObjectNode asJSON() {
+			final ObjectNode ret = RuleSet.MAPPER.createObjectNode();
+			ret.put(sampled ? "samples" : "count", count.sum());
+			ret.put("millis", TimeUnit.NANOSECONDS.toMillis(estimatedNanos()));
+			if (count.sum() != 0)
+				ret.put("meanNanos", nanos.sum() / count.sum());
+			return ret;
+		}
+	}
+
+	/*
+	 * The effectiveness of the Semantic Type result cache for a field - lookups that hit or missed the cache, and those
+	 * made after the cache was bypassed.
+	 */
+	static final class CacheStats {
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder bypassed = new LongAdder();
+
+		ObjectNode asJSON() {
+			final ObjectNode ret = RuleSet.MAPPER.createObjectNode();
+			final long cached = hits.sum() + misses.sum();
+			ret.put("hits", hits.sum());
+			ret.put("misses", misses.sum());
+			ret.put("bypassed", bypassed.sum());
+			if (cached != 0)
+				ret.put("hitRate", (double)hits.sum() / cached);
+			return ret;
+		}
+	}
+
+	/* The violations and (sampled) check time for a field, fields with the same name in different files are combined. */
+	private static final class Field {
+		final LongAdder violations = new LongAdder();
+		final Timer check = new Timer(true);
+		final CacheStats semanticCache = new CacheStats();
+	}
+
+	private Metrics() {
+	}
+
+	/*
+	 * Start collecting metrics, which are visible via JMX while running and written as JSON (to the file, or to
+	 * stderr if the file is "-") when the JVM exits.
+	 */
+	static void enable(final String reportFile) {
+		INSTANCE.startNanos = System.nanoTime();
+		enabled = true;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("com.cobber.dqj:type=Metrics"));
+		}
+		catch (JMException e) {
+			System.err.printf("WARNING: Failed to register metrics MBean. %s%n", e.getMessage());
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				if ("-".equals(reportFile))
+					System.err.println(INSTANCE.getReport());
+				else
+					RuleSet.MAPPER.writerWithDefaultPrettyPrinter().writeValue(new File(reportFile), INSTANCE.asJSON());
+			}
+			catch (IOException e) {
+				System.err.printf("WARNING: Failed to write metrics to '%s'. %s%n", reportFile, e.getMessage());
+			}
+		}, "dqj-metrics"));
+	}
+
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	/*
+	 * Should the supplied record be timed?
+	 */
+	static boolean isSampled(final long record) {
+		return enabled && (record & SAMPLE_MASK) == 0;
+	}
+
+	/*
+	 * Parse the next record, timing the parse if the record is sampled.
+	 */
+	static String[] parseNext(final CsvParser parser, final long record) {
+		if (!isSampled(record))
+			return parser.parseNext();
+		final long start = System.nanoTime();
+		final String[] ret = parser.parseNext();
+		INSTANCE.parse.since(start);
+		return ret;
+	}
+
+	Timer stage(final String name, final boolean sampled) {
+		return stages.computeIfAbsent(name, k -> new Timer(sampled));
+	}
+
+	/*
+	 * The timer for a type of check (e.g. "Pattern" or "SemanticType:EMAIL.EMAIL"), shared by all the fields.
+	 */
+	Timer rule(final String name) {
+		return rules.computeIfAbsent(name, k -> new Timer(true));
+	}
+
+	Timer fieldCheck(final String name) {
+		return field(name).check;
+	}
+
+	/*
+	 * The Semantic Type cache statistics for a field, only updated while metrics are enabled.
+	 */
+	CacheStats semanticCache(final String name) {
+		return field(name).semanticCache;
+	}
+
+	private Field field(final String name) {
+		return fields.computeIfAbsent(name == null ? "" : name, k -> new Field());
+	}
+
+	void addRecord(final int numFields, final boolean wellFormed) {
+		rows.increment();
+		if (wellFormed)
+			cells.add(numFields);
+		else
+			malformed.increment();
+	}
+
+	void addViolation(final String name) {
+		violations.increment();
+		field(name).violations.increment();
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	@Override
+	public long getRows() {
+		return rows.sum();
+	}
+
+	@Override
+	public long getCells() {
+		return cells.sum();
+	}
+
+	@Override
+	public long getMalformed() {
+		return malformed.sum();
+	}
+
+	@Override
+	public long getViolations() {
+		return violations.sum();
+	}
+
+	@Override
+	public double getRowsPerSecond() {
+		return perSecond(rows.sum());
+	}
+
+	@Override
+	public double getCellsPerSecond() {
+		return perSecond(cells.sum());
+	}
+
+	private double perSecond(final long count) {
+		final long elapsed = System.nanoTime() - startNanos;
+		return elapsed <= 0 ? 0 : count * 1e9 / elapsed;
+	}
+
+	@Override
+	public String getReport() {
+		try {
+			return RuleSet.MAPPER.writeValueAsString(asJSON());
+		}
+		catch (JsonProcessingException e) {
+			return "{}";
+		}
+	}
+
+	ObjectNode asJSON() {
+		final ObjectNode ret = RuleSet.MAPPER.createObjectNode();
+		ret.put("elapsedMillis", getElapsedMillis());
+		ret.put("rows", getRows());
+		ret.put("cells", getCells());
+		ret.put("malformed", getMalformed());
+		ret.put("violations", getViolations());
+		ret.put("rowsPerSecond", Math.round(getRowsPerSecond()));
+		ret.put("cellsPerSecond", Math.round(getCellsPerSecond()));
+		ret.put("sampleRate", SAMPLE_RATE);
+
+		final ObjectNode stageNode = ret.putObject("stages");
+		for (final Map.Entry<String, Timer> entry : new TreeMap<>(stages).entrySet())
+			stageNode.set(entry.getKey(), entry.getValue().asJSON());
+
+		final ObjectNode ruleNode = ret.putObject("rules");
+		for (final Map.Entry<String, Timer> entry : new TreeMap<>(rules).entrySet())
+			if (entry.getValue().count.sum() != 0)
+				ruleNode.set(entry.getKey(), entry.getValue().asJSON());
+
+		final ObjectNode fieldNode = ret.putObject("fields");
+		for (final Map.Entry<String, Field> entry : new TreeMap<>(fields).entrySet()) {
+			final ObjectNode field = fieldNode.putObject(entry.getKey());
+			field.put("violations", entry.getValue().violations.sum());
+			field.set("check", entry.getValue().check.asJSON());
+			final CacheStats cache = entry.getValue().semanticCache;
+			if (cache.hits.sum() + cache.misses.sum() + cache.bypassed.sum() != 0)
+				field.set("semanticCache", cache.asJSON());
+		}
+
+		return ret;
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+/**
+ * The JMX view of the {@link Metrics} for the current run.
+ */
+public interface MetricsMBean {
+	/** @return The time since metrics collection started. */
+	long getElapsedMillis();
+
+	/** @return The number of records validated. */
+	long getRows();
+
+	/** @return The number of cells (fields in well-formed records) validated. */
+	long getCells();
+
+	/** @return The number of records with the wrong number of fields. */
+	long getMalformed();
+
+	/** @return The number of cells that failed validation. */
+	long getViolations();
+
+	/** @return The number of records validated per second (since metrics collection started). */
+	double getRowsPerSecond();
+
+	/** @return The number of cells validated per second (since metrics collection started). */
+	double getCellsPerSecond();
+
+	/** @return The complete set of metrics as JSON - stage, rule and field timers plus the per-field violations. */
+	String getReport();
+}
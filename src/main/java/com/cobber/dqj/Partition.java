@@ -0,0 +1,165 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * A byte range of a file aligned to record boundaries.  The file is split into <count> roughly equal pieces, each
+ * piece starts at the first record boundary at or after its nominal start and ends where the next piece starts.
+ * The first piece starts after the header, so every piece contains only data records.
+ * Note: record boundaries are assumed to be newlines, so files with embedded newlines in quoted fields cannot be
+ * partitioned.
+ */
+class Partition {
+	final long start;
+	final long end;
+
+	Partition(final long start, final long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/*
+	 * Compute the piece <index> (0 <= index < count) of the file.
+	 */
+	static Partition compute(final String filename, final int index, final int count) throws IOException {
+		if (index < 0 || index >= count)
+			throw new IllegalArgumentException("Partition index must be in the range 0 to " + (count - 1));
+
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final long headerEnd = align(channel, 1);
+			final long start = Math.max(headerEnd, align(channel, size * index / count));
+			final long end = index == count - 1 ? size : Math.max(start, align(channel, size * (index + 1) / count));
+			return new Partition(start, end);
+		}
+	}
+
+	/*
+	 * Return the offset of the first record that starts at or after the supplied offset.
+	 */
+	static long align(final FileChannel channel, final long offset) throws IOException {
+		if (offset == 0)
+			return 0;
+
+		final ByteBuffer buffer = ByteBuffer.allocate(8192);
+		// Start with the byte before the offset, if it is a newline the record starts at the offset
+		long position = offset - 1;
+		while (true) {
+			buffer.clear();
+			final int read = channel.read(buffer, position);
+			if (read <= 0)
+				return channel.size();
+			for (int i = 0; i < read; i++)
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			position += read;
+		}
+	}
+
+	/*
+	 * Return the offset of the start of the record containing the byte at the supplied offset (never less than floor).
+	 */
+	static long recordStart(final FileChannel channel, final long offset, final long floor) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(8192);
+		long end = offset;
+		while (end > floor) {
+			final long position = Math.max(floor, end - buffer.capacity());
+			buffer.clear();
+			buffer.limit((int)(end - position));
+			final int read = channel.read(buffer, position);
+			if (read <= 0)
+				break;
+			for (int i = read - 1; i >= 0; i--)
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			end = position;
+		}
+		return floor;
+	}
+
+	/*
+	 * Return the offset immediately after the last complete record before the supplied end, or start if there is none.
+	 * Used when the file is still being written, so that a partially written record is never validated.
+	 */
+	static long complete(final FileChannel channel, final long start, final long end) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(8192);
+		long position = end;
+		while (position > start) {
+			final int length = (int)Math.min(buffer.capacity(), position - start);
+			buffer.clear();
+			buffer.limit(length);
+			int read = 0;
+			while (read < length) {
+				final int n = channel.read(buffer, position - length + read);
+				if (n <= 0)
+					return start;
+				read += n;
+			}
+			for (int i = length - 1; i >= 0; i--)
+				if (buffer.get(i) == '\n')
+					return position - length + i + 1;
+			position -= length;
+		}
+
+		return start;
+	}
+
+	/*
+	 * Open a stream that returns the content of this piece of the file.
+	 */
+	InputStream open(final String filename) throws IOException {
+		final FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		return new InputStream() {
+			private long position = start;
+			private final ByteBuffer one = ByteBuffer.allocate(1);
+
+			@Override
+			public int read() throws IOException {
+				one.clear();
+				return read(one) <= 0 ? -1 : one.get(0) & 0xFF;
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException {
+				return read(ByteBuffer.wrap(b, off, len));
+			}
+
+			private int read(final ByteBuffer buffer) throws IOException {
+				final long remaining = end - position;
+				if (remaining <= 0)
+					return -1;
+				if (buffer.remaining() > remaining)
+					buffer.limit(buffer.position() + (int)remaining);
+				final int read = channel.read(buffer, position);
+				if (read > 0)
+					position += read;
+				return read;
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,910 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/*
+ * The compiled form of a Pattern Rule.  The regular expression (as generated by FTA) is compiled into a DFA so that
+ * each value is matched in a single linear scan with no backtracking and no allocation.
+ *  - ASCII characters are mapped to an equivalence class via a 128 entry table.
+ *  - Other characters are classified by a small bit mask, one bit per distinct (non-ASCII) character set used in the
+ *    pattern, e.g. \p{IsAlphabetic} or '.'.
+ * Constructs that cannot be expressed as a DFA (lookaround, backreferences, possessive quantifiers, ...) or patterns
+ * whose DFA would be too large fall back to java.util.regex.  The semantics are those of Matcher.matches().
+ */
+final class PatternMatcher implements ColumnValidator.Check {
+	private static final int MAX_NFA_STATES = 20_000;
+	private static final int MAX_DFA_STATES = 4_096;
+	/* The maximum number of distinct non-ASCII character sets, there is one class per combination. */
+	private static final int MAX_SIGNATURES = 6;
+
+	private final int[] asciiClass;
+	private final int asciiClasses;
+	private final NonAscii[] signatures;
+	private final int classes;
+	private final int[] transitions;
+	private final boolean[] accepting;
+
+	private PatternMatcher(final int[] asciiClass, final int asciiClasses, final NonAscii[] signatures, final int[] transitions, final boolean[] accepting) {
+		this.asciiClass = asciiClass;
+		this.asciiClasses = asciiClasses;
+		this.signatures = signatures;
+		this.classes = asciiClasses + (1 << signatures.length);
+		this.transitions = transitions;
+		this.accepting = accepting;
+	}
+
+	/*
+	 * Compile the regular expression, returns null if it is not a valid regular expression.
+	 */
+	static ColumnValidator.Check compile(final String regExp) {
+		if (regExp == null)
+			return null;
+
+		final PatternMatcher ret = compileDFA(regExp);
+		if (ret != null)
+			return ret;
+
+		try {
+			return new RegexCheck(Pattern.compile(regExp));
+		}
+		catch (PatternSyntaxException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Thrown when the pattern cannot be compiled into a DFA (an unsupported construct or too many states), the caller
+	 * falls back to java.util.regex.  A private type, so that an unexpected exception is never mistaken for this.
+	 */
+	private static final class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	/*
+	 * Compile the regular expression into a DFA, returns null if it uses unsupported constructs or the DFA is too large.
+	 */
+	static PatternMatcher compileDFA(final String regExp) {
+		try {
+			final Parser parser = new Parser(regExp);
+			final Node root = parser.parse();
+			final Nfa nfa = new Nfa(parser.sets);
+			final int[] fragment = nfa.build(root);
+			return nfa.determinize(fragment[0], fragment[1]);
+		}
+		catch (Unsupported e) {
+			return null;
+		}
+	}
+
+	@Override
+	public boolean isValid(final CharSequence input) {
+		if (input == null || ColumnValidator.isBlank(input))
+			return true;
+
+		final int length = input.length();
+		int state = 0;
+		for (int i = 0; i < length; i++) {
+			final char ch = input.charAt(i);
+			final int cls;
+			if (ch < 128)
+				cls = asciiClass[ch];
+			else {
+				int codePoint = ch;
+				if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(input.charAt(i + 1)))
+					codePoint = Character.toCodePoint(ch, input.charAt(++i));
+				int mask = 0;
+				for (int s = 0; s < signatures.length; s++)
+					if (signatures[s].contains(codePoint))
+						mask |= 1 << s;
+				cls = asciiClasses + mask;
+			}
+			state = transitions[state * classes + cls];
+			if (state < 0)
+				return false;
+		}
+
+		return accepting[state];
+	}
+
+	/*
+	 * The fallback - java.util.regex, with a Matcher per thread that is reset for each value.
+	 */
+	static final class RegexCheck implements ColumnValidator.Check {
+		private final ThreadLocal<Matcher> matcher;
+
+		RegexCheck(final Pattern pattern) {
+			matcher = ThreadLocal.withInitial(() -> pattern.matcher(""));
+		}
+
+		@Override
+		public boolean isValid(final CharSequence input) {
+			return input == null || ColumnValidator.isBlank(input) || matcher.get().reset(input).matches();
+		}
+	}
+
+	/*
+	 * Unicode properties that are supported for characters outside the ASCII range.
+	 */
+	private enum Property {
+		ALPHABETIC, LETTER, DIGIT, UPPERCASE, LOWERCASE, WHITESPACE, LETTER_OR_DIGIT;
+
+		boolean test(final int codePoint) {
+			switch (this) {
+			case ALPHABETIC:
+				return Character.isAlphabetic(codePoint);
+			case LETTER:
+				return Character.isLetter(codePoint);
+			case DIGIT:
+				return Character.isDigit(codePoint);
+			case UPPERCASE:
+				return Character.isUpperCase(codePoint);
+			case LOWERCASE:
+				return Character.isLowerCase(codePoint);
+			case WHITESPACE:
+				return Character.isWhitespace(codePoint);
+			default:
+				return Character.isLetterOrDigit(codePoint);
+			}
+		}
+	}
+
+	/*
+	 * The membership of a character set for characters outside the ASCII range - a union of ranges and properties,
+	 * optionally negated.
+	 */
+	private static final class NonAscii {
+		static final NonAscii NONE = new NonAscii(false, new int[0], new Property[0]);
+
+		final boolean negated;
+		final int[] ranges;
+		final Property[] properties;
+
+		NonAscii(final boolean negated, final int[] ranges, final Property[] properties) {
+			this.negated = negated;
+			this.ranges = ranges;
+			this.properties = properties;
+		}
+
+		boolean contains(final int codePoint) {
+			boolean ret = false;
+			for (int i = 0; i < ranges.length && !ret; i += 2)
+				ret = codePoint >= ranges[i] && codePoint <= ranges[i + 1];
+			for (int i = 0; i < properties.length && !ret; i++)
+				ret = properties[i].test(codePoint);
+			return ret != negated;
+		}
+
+		boolean isEmpty() {
+			return !negated && ranges.length == 0 && properties.length == 0;
+		}
+
+		NonAscii negate() {
+			return new NonAscii(!negated, ranges, properties);
+		}
+
+		/* Union - only possible if both are positive or one side is empty. */
+		NonAscii union(final NonAscii other) {
+			if (other.isEmpty())
+				return this;
+			if (isEmpty())
+				return other;
+			if (negated || other.negated)
+				throw new Unsupported();
+			final int[] r = Arrays.copyOf(ranges, ranges.length + other.ranges.length);
+			System.arraycopy(other.ranges, 0, r, ranges.length, other.ranges.length);
+			final TreeSet<Property> p = new TreeSet<>(Arrays.asList(properties));
+			p.addAll(Arrays.asList(other.properties));
+			return new NonAscii(false, r, p.toArray(new Property[0]));
+		}
+
+		String key() {
+			final TreeSet<Property> p = new TreeSet<>(Arrays.asList(properties));
+			return negated + Arrays.toString(ranges) + p;
+		}
+	}
+
+	/*
+	 * A set of characters - the ASCII members as a bit set, plus the non-ASCII membership.
+	 */
+	private static final class CharSet {
+		final BitSet ascii;
+		final NonAscii nonAscii;
+
+		CharSet(final BitSet ascii, final NonAscii nonAscii) {
+			this.ascii = ascii;
+			this.nonAscii = nonAscii;
+		}
+
+		static CharSet of(final int codePoint) {
+			final BitSet ascii = new BitSet(128);
+			if (codePoint < 128)
+				ascii.set(codePoint);
+			return new CharSet(ascii, codePoint < 128 ? NonAscii.NONE : new NonAscii(false, new int[] { codePoint, codePoint }, new Property[0]));
+		}
+
+		static CharSet range(final int from, final int to) {
+			final BitSet ascii = new BitSet(128);
+			if (from < 128)
+				ascii.set(from, Math.min(to, 127) + 1);
+			return new CharSet(ascii, to < 128 ? NonAscii.NONE : new NonAscii(false, new int[] { Math.max(from, 128), to }, new Property[0]));
+		}
+
+		static CharSet ascii(final String members) {
+			final BitSet ascii = new BitSet(128);
+			for (int i = 0; i < members.length(); i++)
+				ascii.set(members.charAt(i));
+			return new CharSet(ascii, NonAscii.NONE);
+		}
+
+		static CharSet property(final Property property) {
+			final BitSet ascii = new BitSet(128);
+			for (int ch = 0; ch < 128; ch++)
+				if (property.test(ch))
+					ascii.set(ch);
+			return new CharSet(ascii, new NonAscii(false, new int[0], new Property[] { property }));
+		}
+
+		CharSet union(final CharSet other) {
+			final BitSet a = (BitSet)ascii.clone();
+			a.or(other.ascii);
+			return new CharSet(a, nonAscii.union(other.nonAscii));
+		}
+
+		CharSet negate() {
+			final BitSet a = (BitSet)ascii.clone();
+			a.flip(0, 128);
+			return new CharSet(a, nonAscii.negate());
+		}
+
+		/* ASCII-only case folding, as per Pattern.CASE_INSENSITIVE. */
+		CharSet caseFold() {
+			final BitSet a = (BitSet)ascii.clone();
+			for (int ch = 'A'; ch <= 'Z'; ch++)
+				if (ascii.get(ch) || ascii.get(ch + 'a' - 'A')) {
+					a.set(ch);
+					a.set(ch + 'a' - 'A');
+				}
+			return new CharSet(a, nonAscii);
+		}
+	}
+
+	/*
+	 * The parse tree.
+	 */
+	private static final class Node {
+		static final int SET = 0;
+		static final int CONCAT = 1;
+		static final int ALTERNATE = 2;
+		static final int REPEAT = 3;
+
+		final int type;
+		final int set;
+		final List<Node> children;
+		final int min;
+		final int max;
+
+		Node(final int type, final int set, final List<Node> children, final int min, final int max) {
+			this.type = type;
+			this.set = set;
+			this.children = children;
+			this.min = min;
+			this.max = max;
+		}
+	}
+
+	/*
+	 * A recursive descent parser for the supported subset of the java.util.regex syntax, anything else is reported by
+	 * throwing Unsupported.
+	 */
+	private static final class Parser {
+		private final String regExp;
+		private int pos;
+		private boolean caseInsensitive;
+		final List<CharSet> sets = new ArrayList<>();
+
+		Parser(final String regExp) {
+			this.regExp = regExp;
+		}
+
+		Node parse() {
+			if (regExp.startsWith("(?i)")) {
+				caseInsensitive = true;
+				pos = 4;
+			}
+			if (more() && peek() == '^')
+				pos++;
+			final Node ret = alternation();
+			if (more())
+				throw new Unsupported();
+			return ret;
+		}
+
+		private boolean more() {
+			return pos < regExp.length();
+		}
+
+		private char peek() {
+			return regExp.charAt(pos);
+		}
+
+		private char next() {
+			if (!more())
+				throw new Unsupported();
+			return regExp.charAt(pos++);
+		}
+
+		private Node alternation() {
+			final List<Node> branches = new ArrayList<>();
+			branches.add(concatenation());
+			while (more() && peek() == '|') {
+				pos++;
+				branches.add(concatenation());
+			}
+			return branches.size() == 1 ? branches.get(0) : new Node(Node.ALTERNATE, -1, branches, 0, 0);
+		}
+
+		private Node concatenation() {
+			final List<Node> items = new ArrayList<>();
+			while (more() && peek() != '|' && peek() != ')') {
+				// A trailing '$' is redundant as the entire value must match
+				if (peek() == '$' && pos == regExp.length() - 1) {
+					pos++;
+					break;
+				}
+				if (peek() == '\\' && regExp.startsWith("\\Q", pos)) {
+					final int end = regExp.indexOf("\\E", pos + 2);
+					final String quoted = regExp.substring(pos + 2, end == -1 ? regExp.length() : end);
+					pos = end == -1 ? regExp.length() : end + 2;
+					for (int i = 0; i < quoted.length(); i = quoted.offsetByCodePoints(i, 1))
+						items.add(literal(quoted.codePointAt(i)));
+					continue;
+				}
+				items.add(quantified(atom()));
+			}
+			return items.size() == 1 ? items.get(0) : new Node(Node.CONCAT, -1, items, 0, 0);
+		}
+
+		private Node quantified(Node atom) {
+			while (more()) {
+				final char ch = peek();
+				int min;
+				int max;
+				if (ch == '*') {
+					min = 0;
+					max = -1;
+					pos++;
+				}
+				else if (ch == '+') {
+					min = 1;
+					max = -1;
+					pos++;
+				}
+				else if (ch == '?') {
+					min = 0;
+					max = 1;
+					pos++;
+				}
+				else if (ch == '{') {
+					pos++;
+					min = number();
+					max = min;
+					if (next() == ',') {
+						max = more() && peek() == '}' ? -1 : number();
+						if (next() != '}')
+							throw new Unsupported();
+					}
+					else if (regExp.charAt(pos - 1) != '}')
+						throw new Unsupported();
+					if (max != -1 && max < min)
+						throw new Unsupported();
+				}
+				else
+					return atom;
+
+				// Reluctant quantifiers match the same language, possessive quantifiers do not
+				if (more() && peek() == '?')
+					pos++;
+				else if (more() && peek() == '+')
+					throw new Unsupported();
+				atom = new Node(Node.REPEAT, -1, Arrays.asList(atom), min, max);
+			}
+			return atom;
+		}
+
+		private int number() {
+			final int start = pos;
+			while (more() && Character.isDigit(peek()) && peek() < 128)
+				pos++;
+			if (start == pos || pos - start > 4)
+				throw new Unsupported();
+			return Integer.parseInt(regExp.substring(start, pos));
+		}
+
+		private Node atom() {
+			final char ch = next();
+			switch (ch) {
+			case '(':
+				if (more() && peek() == '?') {
+					// Only non-capturing groups are supported
+					if (!regExp.startsWith("?:", pos))
+						throw new Unsupported();
+					pos += 2;
+				}
+				final Node group = alternation();
+				if (next() != ')')
+					throw new Unsupported();
+				return group;
+			case '[':
+				return set(characterClass());
+			case '.':
+				final BitSet ascii = new BitSet(128);
+				ascii.set(0, 128);
+				ascii.clear('\n');
+				ascii.clear('\r');
+				return set(new CharSet(ascii, new NonAscii(true, new int[] { 0x85, 0x85, 0x2028, 0x2029 }, new Property[0])));
+			case '\\':
+				return set(caseInsensitive ? escape().caseFold() : escape());
+			case ')':
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+			case '^':
+			case '$':
+				throw new Unsupported();
+			default:
+				pos--;
+				final int codePoint = regExp.codePointAt(pos);
+				pos += Character.charCount(codePoint);
+				return literal(codePoint);
+			}
+		}
+
+		private Node literal(final int codePoint) {
+			final CharSet set = CharSet.of(codePoint);
+			return set(caseInsensitive ? set.caseFold() : set);
+		}
+
+		private Node set(final CharSet set) {
+			sets.add(set);
+			return new Node(Node.SET, sets.size() - 1, null, 0, 0);
+		}
+
+		private CharSet characterClass() {
+			boolean negated = false;
+			if (more() && peek() == '^') {
+				negated = true;
+				pos++;
+			}
+			if (more() && peek() == ']')
+				throw new Unsupported();
+
+			CharSet ret = new CharSet(new BitSet(128), NonAscii.NONE);
+			while (true) {
+				final char ch = next();
+				if (ch == ']')
+					break;
+				if (ch == '[' || (ch == '&' && more() && peek() == '&'))
+					throw new Unsupported();
+
+				CharSet item;
+				int from = -1;
+				if (ch == '\\') {
+					// An escape is either a single character or a predefined class
+					final int start = pos;
+					item = escape();
+					if (isSingle(regExp.charAt(start)))
+						from = singleValue(regExp, start);
+				}
+				else {
+					pos--;
+					from = regExp.codePointAt(pos);
+					pos += Character.charCount(from);
+					item = CharSet.of(from);
+				}
+
+				// A range, e.g. a-z (a '-' immediately before the ']' is a literal)
+				if (from != -1 && more() && peek() == '-' && pos + 1 < regExp.length() && regExp.charAt(pos + 1) != ']') {
+					pos++;
+					int to;
+					if (peek() == '\\') {
+						pos++;
+						final int start = pos;
+						final CharSet end = escape();
+						if (!isSingle(regExp.charAt(start)))
+							throw new Unsupported();
+						to = singleValue(regExp, start);
+					}
+					else {
+						to = regExp.codePointAt(pos);
+						pos += Character.charCount(to);
+					}
+					if (to < from)
+						throw new Unsupported();
+					item = CharSet.range(from, to);
+				}
+				ret = ret.union(caseInsensitive ? item.caseFold() : item);
+			}
+
+			return negated ? ret.negate() : ret;
+		}
+
+		/* Is the escape starting with the supplied character a single character (as opposed to a class)? */
+		private static boolean isSingle(final char escape) {
+			return "dDwWsSpP".indexOf(escape) == -1;
+		}
+
+		/* The value of a single character escape starting at the supplied offset (just after the '\'). */
+		private static int singleValue(final String regExp, final int start) {
+			final char ch = regExp.charAt(start);
+			switch (ch) {
+			case 't':
+				return '\t';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 'f':
+				return '\f';
+			case 'e':
+				return 0x1B;
+			case 'x':
+				return Integer.parseInt(regExp.substring(start + 1, start + 3), 16);
+			case 'u':
+				final int value = Integer.parseInt(regExp.substring(start + 1, start + 5), 16);
+				// java.util.regex combines an escaped surrogate pair into one code point - leave that to it
+				if (Character.isSurrogate((char) value))
+					throw new Unsupported();
+				return value;
+			default:
+				return regExp.codePointAt(start);
+			}
+		}
+
+		private CharSet escape() {
+			final int start = pos;
+			final char ch = next();
+			switch (ch) {
+			case 'd':
+				return CharSet.range('0', '9');
+			case 'D':
+				return CharSet.range('0', '9').negate();
+			case 'w':
+				return CharSet.ascii("abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_");
+			case 'W':
+				return CharSet.ascii("abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_").negate();
+			case 's':
+				return CharSet.ascii(" \t\n\u000B\f\r");
+			case 'S':
+				return CharSet.ascii(" \t\n\u000B\f\r").negate();
+			case 'p':
+			case 'P':
+				final String name;
+				if (more() && peek() == '{') {
+					final int end = regExp.indexOf('}', pos);
+					if (end == -1)
+						throw new Unsupported();
+					name = regExp.substring(pos + 1, end);
+					pos = end + 1;
+				}
+				else
+					name = String.valueOf(next());
+				// Case-insensitive Unicode case properties changed meaning in Java 16 (JDK-8214245) - leave those to java.util.regex
+				if (caseInsensitive && ("IsUppercase".equals(name) || "javaUpperCase".equals(name)
+						|| "IsLowercase".equals(name) || "javaLowerCase".equals(name)))
+					throw new Unsupported();
+				// As in java.util.regex, a case-insensitive property is folded before (not after) any negation
+				final CharSet property = caseInsensitive ? property(name).caseFold() : property(name);
+				return ch == 'p' ? property : property.negate();
+			case 't':
+			case 'n':
+			case 'r':
+			case 'f':
+			case 'e':
+				return CharSet.of(singleValue(regExp, start));
+			case 'x':
+				pos += 2;
+				if (pos > regExp.length() || !isHex(regExp, start + 1, 2))
+					throw new Unsupported();
+				return CharSet.of(singleValue(regExp, start));
+			case 'u':
+				pos += 4;
+				if (pos > regExp.length() || !isHex(regExp, start + 1, 4))
+					throw new Unsupported();
+				return CharSet.of(singleValue(regExp, start));
+			default:
+				// Any other escaped letter or digit has a special meaning (boundaries, backreferences, ...)
+				if (Character.isLetterOrDigit(ch))
+					throw new Unsupported();
+				return CharSet.of(ch);
+			}
+		}
+
+		private static boolean isHex(final String s, final int start, final int length) {
+			for (int i = start; i < start + length; i++)
+				if (Character.digit(s.charAt(i), 16) == -1)
+					return false;
+			return true;
+		}
+
+		/*
+		 * The predefined classes - the POSIX classes are ASCII-only (as they are in java.util.regex by default).
+		 */
+		private static CharSet property(final String name) {
+			switch (name) {
+			case "IsAlphabetic":
+				return CharSet.property(Property.ALPHABETIC);
+			case "L":
+			case "IsL":
+			case "IsLetter":
+			case "javaLetter":
+				return CharSet.property(Property.LETTER);
+			case "Nd":
+			case "IsDigit":
+			case "javaDigit":
+				return CharSet.property(Property.DIGIT);
+			case "IsUppercase":
+			case "javaUpperCase":
+				return CharSet.property(Property.UPPERCASE);
+			case "IsLowercase":
+			case "javaLowerCase":
+				return CharSet.property(Property.LOWERCASE);
+			case "javaWhitespace":
+				return CharSet.property(Property.WHITESPACE);
+			case "javaLetterOrDigit":
+				return CharSet.property(Property.LETTER_OR_DIGIT);
+			case "Lower":
+				return CharSet.range('a', 'z');
+			case "Upper":
+				return CharSet.range('A', 'Z');
+			case "ASCII":
+				return CharSet.range(0, 127);
+			case "Alpha":
+				return CharSet.range('a', 'z').union(CharSet.range('A', 'Z'));
+			case "Digit":
+				return CharSet.range('0', '9');
+			case "Alnum":
+				return CharSet.range('a', 'z').union(CharSet.range('A', 'Z')).union(CharSet.range('0', '9'));
+			case "Punct":
+				return CharSet.ascii("!\"#$%&'()*+,-./:;<=>?@[\\]^_`{|}~");
+			case "XDigit":
+				return CharSet.range('0', '9').union(CharSet.range('a', 'f')).union(CharSet.range('A', 'F'));
+			case "Space":
+				return CharSet.ascii(" \t\n\u000B\f\r");
+			case "Blank":
+				return CharSet.ascii(" \t");
+			default:
+				throw new Unsupported();
+			}
+		}
+	}
+
+	/*
+	 * A Thompson NFA, each state has at most one character set transition plus any number of epsilon transitions.
+	 */
+	private static final class Nfa {
+		private final List<CharSet> sets;
+		private final List<Integer> setOf = new ArrayList<>();
+		private final List<Integer> targetOf = new ArrayList<>();
+		private final List<List<Integer>> epsilons = new ArrayList<>();
+
+		Nfa(final List<CharSet> sets) {
+			this.sets = sets;
+		}
+
+		private int newState() {
+			if (setOf.size() == MAX_NFA_STATES)
+				throw new Unsupported();
+			setOf.add(-1);
+			targetOf.add(-1);
+			epsilons.add(new ArrayList<>());
+			return setOf.size() - 1;
+		}
+
+		private void epsilon(final int from, final int to) {
+			epsilons.get(from).add(to);
+		}
+
+		/*
+		 * Build the fragment for the node, returns {start, end}.
+		 */
+		int[] build(final Node node) {
+			final int start = newState();
+			int end = start;
+
+			switch (node.type) {
+			case Node.SET:
+				end = newState();
+				setOf.set(start, node.set);
+				targetOf.set(start, end);
+				break;
+			case Node.CONCAT:
+				for (final Node child : node.children) {
+					final int[] fragment = build(child);
+					epsilon(end, fragment[0]);
+					end = fragment[1];
+				}
+				break;
+			case Node.ALTERNATE:
+				end = newState();
+				for (final Node child : node.children) {
+					final int[] fragment = build(child);
+					epsilon(start, fragment[0]);
+					epsilon(fragment[1], end);
+				}
+				break;
+			default:
+				final Node child = node.children.get(0);
+				for (int i = 0; i < node.min; i++) {
+					final int[] fragment = build(child);
+					epsilon(end, fragment[0]);
+					end = fragment[1];
+				}
+				if (node.max == -1) {
+					final int[] fragment = build(child);
+					final int loopEnd = newState();
+					epsilon(end, fragment[0]);
+					epsilon(end, loopEnd);
+					epsilon(fragment[1], fragment[0]);
+					epsilon(fragment[1], loopEnd);
+					end = loopEnd;
+				}
+				else {
+					// Each optional copy can only be entered if the previous one was, so skips go straight to the end
+					final int optionalEnd = newState();
+					for (int i = node.min; i < node.max; i++) {
+						final int[] fragment = build(child);
+						epsilon(end, fragment[0]);
+						epsilon(end, optionalEnd);
+						end = fragment[1];
+					}
+					epsilon(end, optionalEnd);
+					end = optionalEnd;
+				}
+				break;
+			}
+
+			return new int[] { start, end };
+		}
+
+		private BitSet closure(final BitSet states) {
+			final BitSet ret = (BitSet)states.clone();
+			final int[] stack = new int[setOf.size()];
+			int top = 0;
+			for (int s = states.nextSetBit(0); s >= 0; s = states.nextSetBit(s + 1))
+				stack[top++] = s;
+			while (top > 0) {
+				final int s = stack[--top];
+				for (final int t : epsilons.get(s))
+					if (!ret.get(t)) {
+						ret.set(t);
+						stack[top++] = t;
+					}
+			}
+			return ret;
+		}
+
+		/*
+		 * Subset construction over the equivalence classes of characters.
+		 */
+		PatternMatcher determinize(final int start, final int accept) {
+			// The distinct non-ASCII memberships
+			final List<NonAscii> signatures = new ArrayList<>();
+			final Map<String, Integer> signatureIndex = new HashMap<>();
+			final int[] signatureOf = new int[sets.size()];
+			for (int i = 0; i < sets.size(); i++) {
+				final NonAscii nonAscii = sets.get(i).nonAscii;
+				if (nonAscii.isEmpty()) {
+					signatureOf[i] = -1;
+					continue;
+				}
+				Integer index = signatureIndex.get(nonAscii.key());
+				if (index == null) {
+					index = signatures.size();
+					signatures.add(nonAscii);
+					signatureIndex.put(nonAscii.key(), index);
+				}
+				signatureOf[i] = index;
+			}
+			if (signatures.size() > MAX_SIGNATURES)
+				throw new Unsupported();
+
+			// The ASCII equivalence classes - characters that are members of exactly the same sets
+			final int[] asciiClass = new int[128];
+			final List<BitSet> classMembership = new ArrayList<>();
+			final Map<BitSet, Integer> classIndex = new HashMap<>();
+			for (int ch = 0; ch < 128; ch++) {
+				final BitSet membership = new BitSet(sets.size());
+				for (int i = 0; i < sets.size(); i++)
+					if (sets.get(i).ascii.get(ch))
+						membership.set(i);
+				Integer index = classIndex.get(membership);
+				if (index == null) {
+					index = classMembership.size();
+					classMembership.add(membership);
+					classIndex.put(membership, index);
+				}
+				asciiClass[ch] = index;
+			}
+			final int asciiClasses = classMembership.size();
+			for (int mask = 0; mask < 1 << signatures.size(); mask++) {
+				final BitSet membership = new BitSet(sets.size());
+				for (int i = 0; i < sets.size(); i++)
+					if (signatureOf[i] != -1 && (mask & (1 << signatureOf[i])) != 0)
+						membership.set(i);
+				classMembership.add(membership);
+			}
+			final int classes = classMembership.size();
+
+			final List<BitSet> dfaStates = new ArrayList<>();
+			final Map<BitSet, Integer> dfaIndex = new HashMap<>();
+			final BitSet initial = new BitSet();
+			initial.set(start);
+			dfaStates.add(closure(initial));
+			dfaIndex.put(dfaStates.get(0), 0);
+
+			int[] transitions = new int[classes * 16];
+			for (int d = 0; d < dfaStates.size(); d++) {
+				final BitSet current = dfaStates.get(d);
+				for (int c = 0; c < classes; c++) {
+					final BitSet next = new BitSet();
+					final BitSet membership = classMembership.get(c);
+					for (int s = current.nextSetBit(0); s >= 0; s = current.nextSetBit(s + 1))
+						if (setOf.get(s) != -1 && membership.get(setOf.get(s)))
+							next.set(targetOf.get(s));
+					int target = -1;
+					if (!next.isEmpty()) {
+						final BitSet closed = closure(next);
+						Integer index = dfaIndex.get(closed);
+						if (index == null) {
+							if (dfaStates.size() == MAX_DFA_STATES)
+								throw new Unsupported();
+							index = dfaStates.size();
+							dfaStates.add(closed);
+							dfaIndex.put(closed, index);
+						}
+						target = index;
+					}
+					if ((d + 1) * classes > transitions.length)
+						transitions = Arrays.copyOf(transitions, transitions.length * 2);
+					transitions[d * classes + c] = target;
+				}
+			}
+
+			final boolean[] accepting = new boolean[dfaStates.size()];
+			for (int d = 0; d < accepting.length; d++)
+				accepting[d] = dfaStates.get(d).get(accept);
+
+			return new PatternMatcher(asciiClass, asciiClasses, signatures.toArray(new NonAscii[0]),
+					Arrays.copyOf(transitions, dfaStates.size() * classes), accepting);
+		}
+	}
+}
@@ -20,6 +20,9 @@ import java.util.Map;
 import com.cobber.fta.core.FTAType;
 
 public interface ProfileMetrics {
+	/** By default OneOf Rules are only generated for String fields with a cardinality less than this. */
+	int MAX_ONE_OF_CARDINALITY = 10;
+
 	public String getName();
 	public long getNullCount();
 	public long getBlankCount();
@@ -44,7 +47,17 @@ public interface ProfileMetrics {
 	 * A skeleton implementation of Rule Generation.
 	 */
 	default RuleSet generateRuleSet() {
+		return generateRuleSet(MAX_ONE_OF_CARDINALITY);
+	}
+
+	/*
+	 * Generate the RuleSet, a OneOf Rule is generated for String fields with a cardinality less than maxOneOfCardinality.
+	 * Note: the cardinality detail retained by FTA is bounded (by the maximum cardinality in its AnalysisConfig), a OneOf
+	 * Rule is only generated if the detail is complete - otherwise it would reject the values that were not retained.
+	 */
+	default RuleSet generateRuleSet(final int maxOneOfCardinality) {
 		RuleSet ruleSet = new RuleSet(getName());
+		ruleSet.setCardinality(getCardinality());
 
 		FTAType ftaType = getType();
 
@@ -66,7 +79,7 @@ public interface ProfileMetrics {
 			case BOOLEAN:
 				break;
 			case STRING:
-				if (getCardinality() != 0 && getCardinality() < 10)
+				if (getCardinality() != 0 && getCardinality() < maxOneOfCardinality && getCardinalityDetails().size() >= getCardinality())
 					ruleSet.add(new Rule("OneOf", getCardinalityDetails().keySet().toArray(new String [getCardinalityDetails().size()])));
 				else
 					ruleSet.add(new Rule("Pattern", getRegExp()));
@@ -74,6 +87,8 @@ public interface ProfileMetrics {
 			case DOUBLE:
 			case LONG:
 				ruleSet.add(new Rule("Pattern", getRegExp()));
+				// The type modifier (e.g. GROUPING, SIGNED_TRAILING) determines how the Min/Max bounds must be parsed
+				ruleSet.setTypeModifier(getTypeModifier());
 				ruleSet.add(new Rule("Min", getMinValue()));
 				ruleSet.add(new Rule("Max", getMaxValue()));
 				break;
@@ -17,71 +17,43 @@ package com.cobber.dqj;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
-import com.cobber.fta.AnalysisConfig;
-import com.cobber.fta.LogicalType;
-import com.cobber.fta.LogicalTypeFactory;
-import com.cobber.fta.PluginDefinition;
 import com.cobber.fta.core.FTAPluginException;
 import com.univocity.parsers.common.TextParsingException;
+import com.univocity.parsers.csv.CsvFormat;
 import com.univocity.parsers.csv.CsvParser;
-import com.univocity.parsers.csv.CsvParserSettings;
 
 /*
  * A ***rudimentary*** example of how to validate using the previously computed RuleSets .
  */
 public class Quality {
-	public static void execute(final String filename, final ArrayList<RuleSet> allRules, final DriverOptions options) throws FTAPluginException {
-		final CsvParserSettings settings = new CsvParserSettings();
-
-		settings.setHeaderExtractionEnabled(true);
-		settings.detectFormatAutomatically();
-		settings.setLineSeparatorDetectionEnabled(true);
-		settings.setIgnoreLeadingWhitespaces(false);
-		settings.setIgnoreTrailingWhitespaces(false);
-		settings.setEmptyValue("");
-		settings.setDelimiterDetectionEnabled(true, ',', '\t', '|', ';');
-
-		String[] header = null;
-		int numFields = 0;
-		long thisRecord = 0;
-		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(new File(filename)), StandardCharsets.UTF_8))) {
-
-			final CsvParser parser = new CsvParser(settings);
-			parser.beginParsing(in);
-
-			header = parser.getRecordMetadata().headers();
-			if (header == null) {
-				System.err.printf("ERROR: Cannot parse header for file '%s'%n", filename);
-				System.exit(1);
-			}
-			numFields = header.length;
-			int col = -1;
-			for (int i = 0; i < numFields; i++) {
-				if (options.field != null && options.field.equals(header[i]))
-					col = i;
-			}
+	/* How often (in milliseconds) a followed file is checked for newly appended records. */
+	private static final long FOLLOW_INTERVAL = 1000;
 
-			String[] row;
+	public static void execute(final String filename, final ArrayList<RuleSet> allRules, final DriverOptions options) throws FTAPluginException {
+		execute(filename, null, allRules, options);
+	}
 
-			while ((row = parser.parseNext()) != null) {
-				thisRecord++;
-				if (row.length != numFields) {
-					System.err.printf("ERROR: Record %d has %d fields, expected %d, skipping%n",
-							thisRecord, row.length, numFields);
-					continue;
-				}
-				for (int i = 0; i < numFields; i++) {
-					if (!check(allRules.get(col == -1 ? i : 0), row[i]))
-						System.err.printf("Error in field '%s'(%d) on line %d, content: '%s'%n", header[i], i, thisRecord, row[i]);
-				}
-			}
+	/*
+	 * Validate the file, if the format is supplied then format detection is skipped.  Returns the format used.
+	 */
+	static CsvFormat execute(final String filename, final CsvFormat format, final ArrayList<RuleSet> allRules, final DriverOptions options) throws FTAPluginException {
+		try (CsvInput input = new CsvInput(filename, format)) {
+			final CsvFormat ret = input.getFormat();
+			execute(input, Collections.emptyList(), allRules, options);
+			return ret;
 		}
 		catch (FileNotFoundException e) {
 			System.err.printf("ERROR: Filename '%s' not found.%n", filename);
@@ -94,30 +66,312 @@ public class Quality {
 			System.err.printf("ERROR: Filename '%s' IOException. %s%n", filename, e.getMessage());
 			System.exit(1);
 		}
+
+		return null;
+	}
+
+	/*
+	 * Validate an open input, the rows that have already been read from the input (e.g. to generate the rules) are
+	 * supplied so that they can be validated before continuing with the remainder of the input.
+	 */
+	static void execute(final CsvInput input, final List<String[]> buffered, final ArrayList<RuleSet> allRules, final DriverOptions options) throws FTAPluginException, IOException {
+		// Compile the Rules before validating the first row so that the per-cell work is just the checks
+		final ArrayList<ColumnValidator> compiled = compile(allRules);
+
+		final String[] header = input.header;
+		if (header == null) {
+			System.err.printf("ERROR: Cannot parse header for file '%s'%n", input.filename);
+			System.exit(1);
+		}
+		final ColumnValidator[] validators = validators(header, compiled, options);
+
+		// If we are only validating a piece of the file then all we need from the start of the file is the header and format
+		if (options.partition != null) {
+			warnUnique(compiled, "--partition");
+			executePartition(input.filename, header, input.getFormat(), validators, options);
+			return;
+		}
+
+		final QualityReport report;
+		try (ErrorSink errors = BufferedErrorSink.create(options.errors, header, options.maxErrors, System.err)) {
+			report = validate(input, buffered, validators, errors, options.threads, options.mapped, options.uniqueMemory * 1024 * 1024);
+		}
+
+		if (options.summary)
+			report.print(System.err);
 	}
 
-	private static boolean check(final RuleSet ruleSet, final String input) throws FTAPluginException {
-		for (final Rule rule : ruleSet.getRules()) {
-			if (rule.getName().equals("NullPercent") && input == null)
-				return false;
-			else if (rule.getName().equals("OneOf") && input != null) {
-				String[] validMembers = rule.getArguments();
-				for (String member : validMembers) {
-					if (input.equalsIgnoreCase(member))
-						return true;
+	/*
+	 * Validate the remainder of an open input (preceded by any rows already read from it), returns the report.
+	 * The individual errors are output to the sink, and the Unique rule is enforced within the memory budget.
+	 */
+	static QualityReport validate(final CsvInput input, final List<String[]> buffered, final ColumnValidator[] validators, final ErrorSink errors,
+			final int threads, final boolean useMapped, final long uniqueBudget) throws IOException {
+		final String[] header = input.header;
+		final QualityReport report = new QualityReport(header);
+
+		try (UniqueChecker unique = UniqueChecker.create(validators, uniqueBudget)) {
+			// Use the memory-mapped fast path if requested and the file is suitable, otherwise fall back to the CsvParser
+			final boolean mapped = useMapped && buffered.isEmpty() && threads <= 1 && MappedCsvValidator.supports(input.getFormat()) &&
+					!CompressedInput.isCompressed(input.filename) &&
+					new MappedCsvValidator(input.filename, header, input.getFormat(), validators).run(report, errors, unique);
+			if (!mapped) {
+				long thisRecord = 0;
+				for (final String[] row : buffered) {
+					thisRecord++;
+					if (unique != null)
+						unique.add(thisRecord, row);
+					validateRow(row, thisRecord, header, validators, report, errors);
 				}
-				return false;
+
+				if (threads > 1)
+					new QualityPipeline(header, validators, threads).run(input.parser, thisRecord, report, errors, unique);
+				else
+					validate(input.parser, thisRecord, header, validators, report, errors, unique);
+			}
+
+			// Duplicates can only be reported once all the records have been seen
+			if (unique != null)
+				unique.finish(report, errors);
+		}
+
+		return report;
+	}
+
+	/*
+	 * Validate only the records appended to the file since the last run, as recorded in the checkpoint (if any).  If
+	 * following, the file is then polled and any further records validated as they are appended.
+	 * Note: the Unique rule is not enforced as duplicates may be in different runs.
+	 */
+	static void executeIncremental(final String filename, final ArrayList<RuleSet> allRules, final DriverOptions options) throws FTAPluginException {
+		final File checkpointFile = options.checkpoint == null ? null : new File(options.checkpoint);
+		final ArrayList<ColumnValidator> compiled = compile(allRules);
+		warnUnique(compiled, options.follow ? "--follow" : "--checkpoint");
+
+		try {
+			Checkpoint checkpoint = checkpointFile == null ? null : Checkpoint.read(checkpointFile);
+			while (true) {
+				final Checkpoint next = validateAppended(filename, checkpoint, compiled, options);
+				if (checkpointFile != null && next != checkpoint)
+					next.write(checkpointFile);
+				checkpoint = next;
+				if (!options.follow)
+					return;
+				Thread.sleep(FOLLOW_INTERVAL);
+			}
+		}
+		catch (FileNotFoundException|NoSuchFileException e) {
+			System.err.printf("ERROR: Filename '%s' not found.%n", filename);
+			System.exit(1);
+		}
+		catch (TextParsingException e) {
+			System.err.printf("ERROR: Filename '%s' Univocity exception. %s%n", filename, e.getMessage());
+			System.exit(1);
+		}
+		catch (IOException e) {
+			System.err.printf("ERROR: Filename '%s' IOException. %s%n", filename, e.getMessage());
+			System.exit(1);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Validate the complete records between the checkpoint and the end of the file, returns the updated checkpoint (or
+	 * the supplied checkpoint if there were no new records).  If the file has been truncated or replaced since the
+	 * checkpoint was taken then validation restarts from the beginning of the file.
+	 */
+	private static Checkpoint validateAppended(final String filename, final Checkpoint checkpoint, final ArrayList<ColumnValidator> compiled,
+			final DriverOptions options) throws IOException {
+		Checkpoint current = checkpoint;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (current != null && (size < current.offset || !current.matches(channel) || !Arrays.asList(current.header).equals(header(channel, current.format)))) {
+				System.err.printf("WARNING: Filename '%s' has been truncated or replaced, validating from the start.%n", filename);
+				current = null;
 			}
-			else if (rule.getName().equals("SemanticType") && input != null && !input.trim().isEmpty()) {
-				String[] types = rule.getArguments();
-				PluginDefinition defn = PluginDefinition.findByQualifier(types[0]);
-				if (defn != null) {
-					LogicalType logical = LogicalTypeFactory.newInstance(defn, new AnalysisConfig());
-						return logical.isValid(input);
+
+			// On the first run determine the header and format, validation starts with the first record
+			if (current == null) {
+				try (CsvInput input = new CsvInput(filename)) {
+					if (input.header == null) {
+						System.err.printf("ERROR: Cannot parse header for file '%s'%n", filename);
+						System.exit(1);
+					}
+					current = Checkpoint.at(channel, input.header, input.getFormat(), Partition.align(channel, 1), 0);
 				}
 			}
+
+			final long end = Partition.complete(channel, current.offset, size);
+			if (end <= current.offset)
+				return current;
+
+			final String[] header = current.header;
+			final ColumnValidator[] validators = validators(header, compiled, options);
+			final QualityReport report = new QualityReport(header);
+			final long records;
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(new Partition(current.offset, end).open(filename), StandardCharsets.UTF_8));
+					ErrorSink errors = BufferedErrorSink.create(options.errors, header, options.maxErrors, System.err)) {
+				final CsvParser parser = new CsvParser(CsvInput.knownSettings(current.format));
+				parser.beginParsing(in);
+				if (options.threads > 1)
+					records = new QualityPipeline(header, validators, options.threads).run(parser, current.records, report, errors, null);
+				else
+					records = validate(parser, current.records, header, validators, report, errors, null);
+			}
+
+			if (options.summary)
+				report.print(System.err);
+
+			return Checkpoint.at(channel, header, current.format, end, records);
 		}
+	}
+
+	/*
+	 * The Unique rule needs every value in the column, so it is not enforced when only part of the file is validated.
+	 */
+	private static void warnUnique(final ArrayList<ColumnValidator> compiled, final String option) {
+		for (final ColumnValidator validator : compiled)
+			if (validator.isUnique())
+				System.err.printf("WARNING: Field '%s' - the Unique rule is not enforced with %s.%n", validator.getName(), option);
+	}
+
+	/*
+	 * Parse the header of the file using the supplied format.
+	 */
+	private static List<String> header(final FileChannel channel, final CsvFormat format) throws IOException {
+		final String[] header = new CsvParser(CsvInput.knownSettings(format)).parseLine(Sampler.readLine(channel, 0));
+		return header == null ? Collections.emptyList() : Arrays.asList(header);
+	}
+
+	/*
+	 * Validate a single byte range of the file and write the partial result.  The partial results for all the ranges
+	 * can subsequently be merged (see Driver --merge) to produce the report for the entire file.
+	 * Note: the Unique rule is not enforced as duplicates may be in different ranges.
+	 */
+	private static void executePartition(final String filename, final String[] header, final CsvFormat format,
+			final ColumnValidator[] validators, final DriverOptions options) throws IOException {
+		final String[] parts = options.partition.split("/");
+		final Partition partition = Partition.compute(filename, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+		final QualityReport report = new QualityReport(header);
+		report.setRangeStart(partition.start);
+
+		// Record numbers are relative to the start of the range, they are rebased when the partials are merged
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(partition.open(filename), StandardCharsets.UTF_8))) {
+			final CsvParser parser = new CsvParser(CsvInput.knownSettings(format));
+			parser.beginParsing(in);
+			if (options.threads > 1)
+				new QualityPipeline(header, validators, options.threads).run(parser, 0, report, null, null);
+			else
+				validate(parser, 0, header, validators, report, null, null);
+		}
+
+		if (options.partial != null)
+			report.write(new File(options.partial));
+		else
+			report.print(System.err);
+	}
+
+	/*
+	 * Map each field in the file to the ColumnValidator used to check it.
+	 */
+	static ColumnValidator[] validators(final String[] header, final ArrayList<ColumnValidator> compiled, final DriverOptions options) {
+		final int numFields = header.length;
+		int col = -1;
+		for (int i = 0; i < numFields; i++) {
+			if (options.field != null && options.field.equals(header[i]))
+				col = i;
+		}
+		final ColumnValidator[] validators = new ColumnValidator[numFields];
+		for (int i = 0; i < numFields; i++)
+			validators[i] = compiled.get(col == -1 ? i : 0);
+
+		return validators;
+	}
+
+	/*
+	 * Validate all the remaining records from the parser on the current thread.
+	 */
+	static long validate(final CsvParser parser, final long initialRecord, final String[] header,
+			final ColumnValidator[] validators, final QualityReport report, final ErrorSink errors, final UniqueChecker unique) throws IOException {
+		long thisRecord = initialRecord;
+		String[] row;
+
+		while ((row = Metrics.parseNext(parser, thisRecord + 1)) != null) {
+			thisRecord++;
+			if (unique != null)
+				unique.add(thisRecord, row);
+			validateRow(row, thisRecord, header, validators, report, errors);
+		}
+
+		return thisRecord;
+	}
+
+	/*
+	 * Validate a single record, the outcome is tallied in the report and any errors are output to the sink (if supplied).
+	 */
+	static void validateRow(final String[] row, final long thisRecord, final String[] header,
+			final ColumnValidator[] validators, final QualityReport report, final RecordErrors errors) {
+		final int numFields = header.length;
+
+		report.addRecord();
+		if (Metrics.isEnabled())
+			Metrics.INSTANCE.addRecord(numFields, row.length == numFields);
+		if (row.length != numFields) {
+			report.addMalformed();
+			if (errors != null)
+				errors.malformed(thisRecord, row.length, numFields);
+			return;
+		}
+		if (Metrics.isSampled(thisRecord)) {
+			validateRowTimed(row, thisRecord, header, validators, report, errors);
+			return;
+		}
+		for (int i = 0; i < numFields; i++) {
+			report.addValue(i, row[i]);
+			if (!validators[i].isValid(row[i]))
+				error(i, row[i], thisRecord, header, report, errors);
+		}
+	}
+
+	/*
+	 * Validate a well-formed record that has been sampled for metrics, timing the checks for each field.
+	 */
+	private static void validateRowTimed(final String[] row, final long thisRecord, final String[] header,
+			final ColumnValidator[] validators, final QualityReport report, final RecordErrors errors) {
+		final long rowStart = System.nanoTime();
+		for (int i = 0; i < header.length; i++) {
+			report.addValue(i, row[i]);
+			final long start = System.nanoTime();
+			final boolean valid = validators[i].isValidTimed(row[i]);
+			Metrics.INSTANCE.fieldCheck(header[i]).since(start);
+			if (!valid)
+				error(i, row[i], thisRecord, header, report, errors);
+		}
+		Metrics.INSTANCE.check.since(rowStart);
+	}
+
+	private static void error(final int field, final String content, final long thisRecord, final String[] header,
+			final QualityReport report, final RecordErrors errors) {
+		report.addError(field, thisRecord, content);
+		if (errors != null)
+			errors.error(field, thisRecord, content);
+		if (Metrics.isEnabled())
+			Metrics.INSTANCE.addViolation(header[field]);
+	}
+
+	/**
+	 * Compile a list of RuleSets into the corresponding list of ColumnValidators.
+	 * @param allRules The RuleSets to compile.
+	 * @return The ColumnValidators (in the same order as the RuleSets).
+	 * @throws FTAPluginException If a Semantic Type plugin cannot be instantiated.
+	 */
+	public static ArrayList<ColumnValidator> compile(final ArrayList<RuleSet> allRules) throws FTAPluginException {
+		final ArrayList<ColumnValidator> compiled = new ArrayList<>(allRules.size());
+		for (final RuleSet ruleSet : allRules)
+			compiled.add(ColumnValidator.compile(ruleSet));
 
-		return true;
+		return compiled;
 	}
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.cobber.fta.core.InternalErrorException;
+import com.univocity.parsers.csv.CsvParser;
+
+/*
+ * A multi-threaded validation pipeline.
+ *  - The calling thread reads and parses the input and hands batches of rows to the validator pool.
+ *  - A pool of validator threads checks each batch and records the errors for that batch.
+ *  - An emitter thread passes the errors for each batch to the ErrorSink in the order the batches were read, so the
+ *    output (including which errors are suppressed) is identical to the single-threaded case.
+ * The queue between the reader and the emitter is bounded so the reader can never get more than a fixed number
+ * of batches ahead of the output.
+ */
+class QualityPipeline {
+	private static final int BATCH_SIZE = 1000;
+	private static final int BATCHES_PER_THREAD = 4;
+
+	private final String[] header;
+	private final ColumnValidator[] validators;
+	private final int threads;
+
+	QualityPipeline(final String[] header, final ColumnValidator[] validators, final int threads) {
+		this.header = header;
+		this.validators = validators;
+		this.threads = threads;
+	}
+
+	/*
+	 * The outcome of validating a single batch.
+	 */
+	private static class BatchResult {
+		final ErrorBatch errors;
+		final QualityReport report;
+
+		BatchResult(final ErrorBatch errors, final QualityReport report) {
+			this.errors = errors;
+			this.report = report;
+		}
+	}
+
+	/**
+	 * Validate all the remaining rows from the parser.
+	 * @param parser The parser (positioned after the header).
+	 * @param initialRecord The number of records already consumed from the parser.
+	 * @param report The report to accumulate the results into.
+	 * @param sink The sink for the individual errors, if null the errors are not output.
+	 * @param unique The checker for the Unique rule (may be null), this is run on the reading thread to preserve record order.
+	 * @return The number of the last record processed.
+	 * @throws IOException If the UniqueChecker fails to spill to disk.
+	 */
+	long run(final CsvParser parser, final long initialRecord, final QualityReport report, final ErrorSink sink, final UniqueChecker unique) throws IOException {
+		final ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+			final Thread t = new Thread(r, "dqj-validator");
+			t.setDaemon(true);
+			return t;
+		});
+		final BlockingQueue<Future<BatchResult>> pending = new ArrayBlockingQueue<>(threads * BATCHES_PER_THREAD);
+		final Future<BatchResult> endOfInput = CompletableFuture.completedFuture(null);
+		final Throwable[] emitterFailure = new Throwable[1];
+
+		final Thread emitter = new Thread(() -> {
+			boolean failed = false;
+			try {
+				Future<BatchResult> next;
+				while ((next = pending.take()) != endOfInput) {
+					// If we have failed keep draining the queue so the reader does not block forever
+					if (failed)
+						continue;
+					try {
+						final BatchResult result = next.get();
+						if (sink != null)
+							result.errors.replay(sink);
+						report.merge(result.report, 0);
+					}
+					catch (ExecutionException e) {
+						emitterFailure[0] = e.getCause();
+						failed = true;
+					}
+					catch (RuntimeException e) {
+						// e.g. the sink failed to write
+						emitterFailure[0] = e;
+						failed = true;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "dqj-emitter");
+		emitter.start();
+
+		long thisRecord = initialRecord;
+		try {
+			String[] row;
+			String[][] rows = new String[BATCH_SIZE][];
+			int count = 0;
+			while ((row = Metrics.parseNext(parser, thisRecord + count + 1)) != null) {
+				if (unique != null)
+					unique.add(thisRecord + count + 1, row);
+				rows[count++] = row;
+				if (count == BATCH_SIZE) {
+					submit(pool, pending, rows, count, thisRecord + 1, sink != null);
+					thisRecord += count;
+					rows = new String[BATCH_SIZE][];
+					count = 0;
+				}
+			}
+			if (count != 0) {
+				submit(pool, pending, rows, count, thisRecord + 1, sink != null);
+				thisRecord += count;
+			}
+			pending.put(endOfInput);
+			emitter.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException("Validation interrupted", e);
+		}
+		finally {
+			// If the reader failed the emitter will be blocked waiting for the next batch
+			emitter.interrupt();
+			pool.shutdownNow();
+		}
+
+		if (emitterFailure[0] != null)
+			throw new InternalErrorException("Validation failed", emitterFailure[0]);
+
+		return thisRecord;
+	}
+
+	private void submit(final ExecutorService pool, final BlockingQueue<Future<BatchResult>> pending,
+			final String[][] rows, final int count, final long firstRecord, final boolean recordErrors) throws InterruptedException {
+		pending.put(pool.submit(() -> validate(rows, count, firstRecord, recordErrors)));
+	}
+
+	/*
+	 * Validate a batch of rows, the errors are recorded so that the emitter can pass them to the sink in order.
+	 */
+	private BatchResult validate(final String[][] rows, final int count, final long firstRecord, final boolean recordErrors) {
+		final ErrorBatch errors = recordErrors ? new ErrorBatch() : null;
+		final QualityReport report = new QualityReport(header);
+
+		for (int r = 0; r < count; r++)
+			Quality.validateRow(rows[r], firstRecord + r, header, validators, report, errors);
+
+		return new BatchResult(errors, report);
+	}
+
+	/*
+	 * The errors detected in a single batch, held in parallel arrays to keep the per-error overhead small.
+	 * A field of -1 indicates a malformed record, in which case the detail is the number of fields in the record.
+	 * Duplicates are never part of a batch, they are only detected once all the records have been read.
+	 */
+	static class ErrorBatch implements RecordErrors {
+		private long[] records = new long[16];
+		private int[] fields = new int[16];
+		private int[] details = new int[16];
+		private String[] contents = new String[16];
+		private int expected;
+		private int count;
+
+		@Override
+		public void malformed(final long record, final int fields, final int expected) {
+			this.expected = expected;
+			add(-1, record, fields, null);
+		}
+
+		@Override
+		public void error(final int field, final long record, final String content) {
+			add(field, record, 0, content);
+		}
+
+		private void add(final int field, final long record, final int detail, final String content) {
+			if (count == records.length) {
+				records = Arrays.copyOf(records, count * 2);
+				fields = Arrays.copyOf(fields, count * 2);
+				details = Arrays.copyOf(details, count * 2);
+				contents = Arrays.copyOf(contents, count * 2);
+			}
+			records[count] = record;
+			fields[count] = field;
+			details[count] = detail;
+			contents[count] = content;
+			count++;
+		}
+
+		void replay(final ErrorSink sink) {
+			for (int i = 0; i < count; i++)
+				if (fields[i] == -1)
+					sink.malformed(records[i], details[i], expected);
+				else
+					sink.error(fields[i], records[i], contents[i]);
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A summary of the results of validating a file (or a part of a file).
+ * Reports are mergeable, so a file can be validated in pieces (possibly on different machines) and the partial
+ * reports combined to produce the report for the whole file.
+ * All record numbers are relative to the start of the piece of the file that was validated.
+ */
+public class QualityReport {
+	/** The maximum number of errors retained per field. */
+	static final int FIRST_ERRORS = 10;
+
+	private final String[] fieldNames;
+	private long rangeStart;
+	private long records;
+	private long malformed;
+	private final long[] violations;
+	private final long[] nulls;
+	private final long[] blanks;
+	private final long[] duplicates;
+	private final List<List<ErrorEntry>> firstErrors;
+
+	/**
+	 * An individual error - the record number, and the content of the offending field.
+	 */
+	public static class ErrorEntry {
+		public final long record;
+		public final String content;
+
+		ErrorEntry(final long record, final String content) {
+			this.record = record;
+			this.content = content;
+		}
+	}
+
+	public QualityReport(final String[] fieldNames) {
+		this.fieldNames = fieldNames;
+		violations = new long[fieldNames.length];
+		nulls = new long[fieldNames.length];
+		blanks = new long[fieldNames.length];
+		duplicates = new long[fieldNames.length];
+		firstErrors = new ArrayList<>(fieldNames.length);
+		for (int i = 0; i < fieldNames.length; i++)
+			firstErrors.add(new ArrayList<>());
+	}
+
+	void addRecord() {
+		records++;
+	}
+
+	void addMalformed() {
+		malformed++;
+	}
+
+	void addValue(final int field, final CharSequence value) {
+		if (value == null)
+			nulls[field]++;
+		else if (ColumnValidator.isBlank(value))
+			blanks[field]++;
+	}
+
+	void addDuplicate(final int field) {
+		duplicates[field]++;
+	}
+
+	void addError(final int field, final long record, final String content) {
+		violations[field]++;
+		if (firstErrors.get(field).size() < FIRST_ERRORS)
+			firstErrors.get(field).add(new ErrorEntry(record, content));
+	}
+
+	/**
+	 * Merge a report for a subsequent piece of the file into this report.
+	 * @param other The report to merge, this must cover the records immediately following those in this report.
+	 * @param offset The amount to add to the record numbers in the other report.
+	 */
+	public void merge(final QualityReport other, final long offset) {
+		if (!Arrays.equals(fieldNames, other.fieldNames))
+			throw new IllegalArgumentException("Cannot merge reports with different fields");
+
+		records += other.records;
+		malformed += other.malformed;
+		for (int i = 0; i < fieldNames.length; i++) {
+			violations[i] += other.violations[i];
+			nulls[i] += other.nulls[i];
+			blanks[i] += other.blanks[i];
+			duplicates[i] += other.duplicates[i];
+			final List<ErrorEntry> errors = firstErrors.get(i);
+			for (final ErrorEntry entry : other.firstErrors.get(i)) {
+				if (errors.size() == FIRST_ERRORS)
+					break;
+				errors.add(new ErrorEntry(entry.record + offset, entry.content));
+			}
+		}
+	}
+
+	/**
+	 * Merge a set of partial reports, each covering a distinct byte range of the same file.
+	 * @param partials The partial reports (in any order).
+	 * @return A report covering the union of the partial reports.
+	 */
+	public static QualityReport merge(final List<QualityReport> partials) {
+		final List<QualityReport> ordered = new ArrayList<>(partials);
+		ordered.sort((a, b) -> Long.compare(a.rangeStart, b.rangeStart));
+
+		final QualityReport ret = new QualityReport(ordered.get(0).fieldNames);
+		for (final QualityReport partial : ordered)
+			ret.merge(partial, ret.records);
+
+		return ret;
+	}
+
+	public long getRecords() {
+		return records;
+	}
+
+	public long getMalformed() {
+		return malformed;
+	}
+
+	public String[] getFieldNames() {
+		return fieldNames;
+	}
+
+	public long getViolations(final int field) {
+		return violations[field];
+	}
+
+	public long getNulls(final int field) {
+		return nulls[field];
+	}
+
+	public long getBlanks(final int field) {
+		return blanks[field];
+	}
+
+	public long getDuplicates(final int field) {
+		return duplicates[field];
+	}
+
+	public List<ErrorEntry> getFirstErrors(final int field) {
+		return firstErrors.get(field);
+	}
+
+	void setRangeStart(final long rangeStart) {
+		this.rangeStart = rangeStart;
+	}
+
+	/**
+	 * Output a human-readable summary of the report.
+	 * @param out The stream to output the report on.
+	 */
+	public void print(final PrintStream out) {
+		out.printf("Records: %d, malformed: %d%n", records, malformed);
+		for (int i = 0; i < fieldNames.length; i++) {
+			out.printf("Field '%s'(%d): violations %d, nulls %d, blanks %d", fieldNames[i], i, violations[i], nulls[i], blanks[i]);
+			if (duplicates[i] != 0)
+				out.printf(", duplicates %d", duplicates[i]);
+			if (!firstErrors.get(i).isEmpty()) {
+				out.print(", first errors on lines:");
+				for (final ErrorEntry entry : firstErrors.get(i))
+					out.printf(" %d", entry.record);
+			}
+			out.println();
+		}
+	}
+
+	public ObjectNode asJSON() {
+		final ObjectNode report = RuleSet.MAPPER.createObjectNode();
+		report.put("rangeStart", rangeStart);
+		report.put("records", records);
+		report.put("malformed", malformed);
+		final ArrayNode fields = report.putArray("fields");
+		for (int i = 0; i < fieldNames.length; i++) {
+			final ObjectNode field = fields.addObject();
+			field.put("name", fieldNames[i]);
+			field.put("violations", violations[i]);
+			field.put("nulls", nulls[i]);
+			field.put("blanks", blanks[i]);
+			field.put("duplicates", duplicates[i]);
+			final ArrayNode errors = field.putArray("firstErrors");
+			for (final ErrorEntry entry : firstErrors.get(i))
+				errors.addObject().put("record", entry.record).put("content", entry.content);
+		}
+
+		return report;
+	}
+
+	public static QualityReport fromJSON(final JsonNode node) {
+		final JsonNode fields = node.get("fields");
+		final String[] fieldNames = new String[fields.size()];
+		for (int i = 0; i < fieldNames.length; i++)
+			fieldNames[i] = fields.get(i).get("name").asText();
+
+		final QualityReport ret = new QualityReport(fieldNames);
+		ret.rangeStart = node.get("rangeStart").asLong();
+		ret.records = node.get("records").asLong();
+		ret.malformed = node.get("malformed").asLong();
+		for (int i = 0; i < fieldNames.length; i++) {
+			final JsonNode field = fields.get(i);
+			ret.violations[i] = field.get("violations").asLong();
+			ret.nulls[i] = field.get("nulls").asLong();
+			ret.blanks[i] = field.get("blanks").asLong();
+			ret.duplicates[i] = field.path("duplicates").asLong();
+			for (final JsonNode error : field.get("firstErrors")) {
+				final JsonNode content = error.get("content");
+				ret.firstErrors.get(i).add(new ErrorEntry(error.get("record").asLong(), content.isNull() ? null : content.asText()));
+			}
+		}
+
+		return ret;
+	}
+
+	public void write(final File file) throws IOException {
+		RuleSet.MAPPER.writerWithDefaultPrettyPrinter().writeValue(file, asJSON());
+	}
+
+	public static QualityReport read(final File file) throws IOException {
+		return fromJSON(RuleSet.MAPPER.readTree(file));
+	}
+}
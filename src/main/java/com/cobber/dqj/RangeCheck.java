@@ -0,0 +1,356 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.text.DecimalFormatSymbols;
+
+/*
+ * The compiled form of the Min/Max (and for dates the Format) Rules.  The bounds are parsed once when the check is
+ * compiled, each value is then parsed directly from the character data into a primitive and compared.
+ * Null and blank values are not checked, values that cannot be parsed as the base type are invalid.
+ * A bound that cannot be parsed is ignored (with a warning).
+ */
+final class RangeCheck {
+	private static final int MAX_NANO = 999_999_999;
+
+	private RangeCheck() {
+	}
+
+	/*
+	 * Compile the range check for a column, returns null if there is nothing to check (or the type is not supported).
+	 * @param name The name of the column (for warnings).
+	 * @param type The FTA base type, e.g. "Long" or "LocalDate".
+	 * @param format The date/time format or, for numeric types, the FTA type modifier (null if unknown, i.e. plain numbers).
+	 * @param min The minimum value (null if none).
+	 * @param max The maximum value (null if none).
+	 */
+	static ColumnValidator.Check compile(final String name, final String type, final String format, final String min, final String max) {
+		if (type == null)
+			return null;
+
+		switch (type) {
+		case "Long":
+			if ((min == null && max == null) || !isPlainNumber(name, type, format))
+				return null;
+			return new LongRange(longBound(name, "Min", min, Long.MIN_VALUE), longBound(name, "Max", max, Long.MAX_VALUE));
+		case "Double":
+			if ((min == null && max == null) || !isPlainNumber(name, type, format))
+				return null;
+			return new DoubleRange(doubleBound(name, "Min", min, Double.NEGATIVE_INFINITY), doubleBound(name, "Max", max, Double.POSITIVE_INFINITY));
+		default:
+			final CompiledDateFormat dateFormat = CompiledDateFormat.compile(type, format);
+			if (dateFormat == null)
+				return null;
+			long minKey = Long.MIN_VALUE + 1;
+			int minNano = 0;
+			if (min != null) {
+				final long key = dateFormat.parse(min);
+				if (key == CompiledDateFormat.INVALID)
+					unparseable(name, "Min", min);
+				else {
+					minKey = key;
+					minNano = dateFormat.hasNanoOfSecond() ? dateFormat.nanoOfSecond(min) : 0;
+				}
+			}
+			long maxKey = Long.MAX_VALUE;
+			int maxNano = MAX_NANO;
+			if (max != null) {
+				final long key = dateFormat.parse(max);
+				if (key == CompiledDateFormat.INVALID)
+					unparseable(name, "Max", max);
+				else {
+					maxKey = key;
+					maxNano = dateFormat.hasNanoOfSecond() ? dateFormat.nanoOfSecond(max) : MAX_NANO;
+				}
+			}
+			return new TemporalRange(dateFormat, minKey, minNano, maxKey, maxNano);
+		}
+	}
+
+	/*
+	 * The numeric parsers only accept an optional sign, ASCII digits, '.' and an exponent.  Numbers profiled with any
+	 * other type modifier (e.g. GROUPING or SIGNED_TRAILING), or localized doubles in a locale that does not use '.' as the
+	 * decimal separator, cannot be range checked - so warn and skip the check rather than fail every value.
+	 */
+	private static boolean isPlainNumber(final String name, final String type, final String modifier) {
+		boolean localized = true;
+		if (modifier != null && !modifier.isEmpty())
+			for (final String flag : modifier.split(",")) {
+				switch (flag.trim()) {
+				case "SIGNED":
+				case "EXPONENT":
+					break;
+				case "NON_LOCALIZED":
+					localized = false;
+					break;
+				default:
+					System.err.printf("WARNING: Field '%s' - Min/Max are not enforced for %s values with format '%s'.%n", name, type, modifier);
+					return false;
+				}
+			}
+
+		if ("Double".equals(type) && localized && DecimalFormatSymbols.getInstance().getDecimalSeparator() != '.') {
+			System.err.printf("WARNING: Field '%s' - Min/Max are not enforced for localized Double values (decimal separator '%c').%n",
+					name, DecimalFormatSymbols.getInstance().getDecimalSeparator());
+			return false;
+		}
+
+		return true;
+	}
+
+	private static long longBound(final String name, final String which, final String bound, final long unbounded) {
+		if (bound == null)
+			return unbounded;
+		if (!isLong(bound)) {
+			unparseable(name, which, bound);
+			return unbounded;
+		}
+		return parseLong(bound);
+	}
+
+	private static double doubleBound(final String name, final String which, final String bound, final double unbounded) {
+		if (bound == null)
+			return unbounded;
+		final double ret = parseDouble(bound);
+		if (Double.isNaN(ret)) {
+			unparseable(name, which, bound);
+			return unbounded;
+		}
+		return ret;
+	}
+
+	private static void unparseable(final String name, final String which, final String bound) {
+		System.err.printf("WARNING: Field '%s' - cannot parse %s '%s', the bound is not enforced.%n", name, which, bound);
+	}
+
+	private static int skipLeading(final CharSequence input) {
+		int start = 0;
+		while (start < input.length() && input.charAt(start) <= ' ')
+			start++;
+		return start;
+	}
+
+	private static int skipTrailing(final CharSequence input, final int start) {
+		int end = input.length();
+		while (end > start && input.charAt(end - 1) <= ' ')
+			end--;
+		return end;
+	}
+
+	/*
+	 * Is the input a valid long (optional sign, digits, no overflow)?  Surrounding white space is ignored.
+	 */
+	static boolean isLong(final CharSequence input) {
+		int pos = skipLeading(input);
+		final int end = skipTrailing(input, pos);
+		if (pos < end && (input.charAt(pos) == '-' || input.charAt(pos) == '+'))
+			pos++;
+		if (pos == end)
+			return false;
+		// Accumulate negatively (as Long.parseLong does) so that Long.MIN_VALUE can be represented
+		final boolean negative = input.charAt(skipLeading(input)) == '-';
+		final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long result = 0;
+		for (; pos < end; pos++) {
+			final int digit = input.charAt(pos) - '0';
+			if (digit < 0 || digit > 9 || result < limit / 10)
+				return false;
+			result *= 10;
+			if (result < limit + digit)
+				return false;
+			result -= digit;
+		}
+		return true;
+	}
+
+	/*
+	 * Parse a long that has already been validated by isLong().
+	 */
+	static long parseLong(final CharSequence input) {
+		int pos = skipLeading(input);
+		final int end = skipTrailing(input, pos);
+		final boolean negative = input.charAt(pos) == '-';
+		if (negative || input.charAt(pos) == '+')
+			pos++;
+		long result = 0;
+		for (; pos < end; pos++)
+			result = result * 10 - (input.charAt(pos) - '0');
+		return negative ? result : -result;
+	}
+
+	/* Powers of ten that are exactly representable as a double. */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/*
+	 * Parse a double, returns NaN if the input is not a valid double.  Surrounding white space is ignored.
+	 * Simple decimals (at most 15 significant digits, small exponent) are converted exactly without allocation, anything
+	 * else is handed to Double.parseDouble - so the result is always the correctly rounded value.
+	 */
+	static double parseDouble(final CharSequence input) {
+		final int start = skipLeading(input);
+		final int end = skipTrailing(input, start);
+		int pos = start;
+		boolean negative = false;
+		if (pos < end && (input.charAt(pos) == '-' || input.charAt(pos) == '+'))
+			negative = input.charAt(pos++) == '-';
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+		for (; pos < end; pos++) {
+			final char ch = input.charAt(pos);
+			if (ch >= '0' && ch <= '9') {
+				seenDigit = true;
+				if (mantissa != 0 || ch != '0')
+					digits++;
+				mantissa = mantissa * 10 + ch - '0';
+				if (seenPoint)
+					scale++;
+				if (digits > 15)
+					return slowParse(input, start, end);
+			}
+			else if (ch == '.' && !seenPoint)
+				seenPoint = true;
+			else
+				break;
+		}
+		if (!seenDigit)
+			return pos == end ? Double.NaN : slowParse(input, start, end);
+
+		int exponent = 0;
+		if (pos < end) {
+			final char ch = input.charAt(pos);
+			if (ch != 'e' && ch != 'E')
+				return slowParse(input, start, end);
+			pos++;
+			boolean negativeExponent = false;
+			if (pos < end && (input.charAt(pos) == '-' || input.charAt(pos) == '+'))
+				negativeExponent = input.charAt(pos++) == '-';
+			if (pos == end)
+				return Double.NaN;
+			for (; pos < end; pos++) {
+				final int digit = input.charAt(pos) - '0';
+				if (digit < 0 || digit > 9)
+					return Double.NaN;
+				if (exponent > 1000)
+					return slowParse(input, start, end);
+				exponent = exponent * 10 + digit;
+			}
+			if (negativeExponent)
+				exponent = -exponent;
+		}
+
+		exponent -= scale;
+		double ret;
+		if (exponent == 0)
+			ret = mantissa;
+		else if (exponent > 0 && exponent < POWERS_OF_TEN.length)
+			ret = mantissa * POWERS_OF_TEN[exponent];
+		else if (exponent < 0 && -exponent < POWERS_OF_TEN.length)
+			ret = mantissa / POWERS_OF_TEN[-exponent];
+		else
+			return slowParse(input, start, end);
+
+		return negative ? -ret : ret;
+	}
+
+	private static double slowParse(final CharSequence input, final int start, final int end) {
+		try {
+			final double ret = Double.parseDouble(input.subSequence(start, end).toString());
+			// Double.parseDouble accepts a few things (e.g. a trailing 'd' or hexadecimal) we do not regard as valid
+			final char last = input.charAt(end - 1);
+			return (last >= '0' && last <= '9') || last == '.' ? ret : Double.NaN;
+		}
+		catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	static final class LongRange implements ColumnValidator.Check {
+		private final long min;
+		private final long max;
+
+		LongRange(final long min, final long max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public boolean isValid(final CharSequence input) {
+			if (input == null || ColumnValidator.isBlank(input))
+				return true;
+			if (!isLong(input))
+				return false;
+			final long value = parseLong(input);
+			return value >= min && value <= max;
+		}
+	}
+
+	static final class DoubleRange implements ColumnValidator.Check {
+		private final double min;
+		private final double max;
+
+		DoubleRange(final double min, final double max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public boolean isValid(final CharSequence input) {
+			if (input == null || ColumnValidator.isBlank(input))
+				return true;
+			final double value = parseDouble(input);
+			return value >= min && value <= max;
+		}
+	}
+
+	/*
+	 * For date-time formats the key is the epoch second, the nano of the second is only parsed (and compared) if the
+	 * value falls in the same second as a bound with a non-trivial nano.
+	 */
+	static final class TemporalRange implements ColumnValidator.Check {
+		private final CompiledDateFormat format;
+		private final long min;
+		private final int minNano;
+		private final long max;
+		private final int maxNano;
+
+		TemporalRange(final CompiledDateFormat format, final long min, final int minNano, final long max, final int maxNano) {
+			this.format = format;
+			this.min = min;
+			this.minNano = minNano;
+			this.max = max;
+			this.maxNano = maxNano;
+		}
+
+		@Override
+		public boolean isValid(final CharSequence input) {
+			if (input == null || ColumnValidator.isBlank(input))
+				return true;
+			final long value = format.parse(input);
+			if (value == CompiledDateFormat.INVALID || value < min || value > max)
+				return false;
+			if (value == min && minNano != 0 && format.nanoOfSecond(input) < minNano)
+				return false;
+			return value != max || maxNano == MAX_NANO || format.nanoOfSecond(input) <= maxNano;
+		}
+	}
+}
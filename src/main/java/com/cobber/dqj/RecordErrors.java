@@ -0,0 +1,37 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+/**
+ * The receiver of the errors detected in individual records - malformed records and fields that fail validation.
+ */
+public interface RecordErrors {
+	/**
+	 * Report a record with the wrong number of fields.
+	 * @param record The record number.
+	 * @param fields The number of fields in the record.
+	 * @param expected The number of fields in the header.
+	 */
+	void malformed(long record, int fields, int expected);
+
+	/**
+	 * Report a field that failed validation.
+	 * @param field The index of the field.
+	 * @param record The record number.
+	 * @param content The content of the field (may be null).
+	 */
+	void error(int field, long record, String content);
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+import com.cobber.fta.TextAnalyzer;
+import com.cobber.fta.core.InternalErrorException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.univocity.parsers.csv.CsvFormat;
+
+/*
+ * An on-disk cache of generated RuleSets and detected CSV formats, so that repeated runs against files with the same
+ * layout can skip training and format detection.
+ *  - The format of a data file is keyed by the raw header line, including its line terminator (so files that differ
+ *    only in their line separator do not share a format).
+ *  - RuleSets generated from a data file are keyed by the raw header line plus the options that affect generation.
+ *  - RuleSets generated from a specification are keyed by the content of the specification.
+ * Every key also includes the version of FTA and of dqj, so upgrading either invalidates the cache.
+ * Entries are written atomically so concurrent runs can share a cache directory, unreadable entries are treated as misses.
+ */
+class RuleCache {
+	/* Bump if the layout of an entry changes. */
+	private static final int CACHE_VERSION = 2;
+	private static final String CODE_VERSION = codeVersion();
+	/* The maximum number of bytes of the header line used in the key. */
+	private static final int MAX_HEADER = 1024 * 1024;
+
+	private final Path directory;
+
+	/*
+	 * A cache entry - any of the fields may be null.
+	 */
+	static class Entry {
+		final String[] header;
+		final CsvFormat format;
+		final ArrayList<RuleSet> ruleSets;
+
+		Entry(final String[] header, final CsvFormat format, final ArrayList<RuleSet> ruleSets) {
+			this.header = header;
+			this.format = format;
+			this.ruleSets = ruleSets;
+		}
+	}
+
+	RuleCache(final String directory) throws IOException {
+		this.directory = Files.createDirectories(Paths.get(directory));
+	}
+
+	/*
+	 * Return the entry for the key, or null if there is no (readable) entry.
+	 */
+	Entry get(final String key) {
+		final File file = directory.resolve(key + ".json").toFile();
+		if (!file.exists())
+			return null;
+		try {
+			return fromJSON(RuleSet.MAPPER.readTree(file));
+		}
+		catch (IOException|RuntimeException e) {
+			return null;
+		}
+	}
+
+	void put(final String key, final Entry entry) throws IOException {
+		final Path temp = Files.createTempFile(directory, key, ".tmp");
+		try {
+			RuleSet.MAPPER.writeValue(temp.toFile(), asJSON(entry));
+			Files.move(temp, directory.resolve(key + ".json"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/*
+	 * The first line of the (decompressed) file including the line terminator, or null if the file is not a regular file.
+	 * At most MAX_HEADER bytes are read, so a file with no newline yields a truncated line with no terminator.
+	 */
+	static String headerLine(final String filename) throws IOException {
+		if (!Files.isRegularFile(Paths.get(filename)))
+			return null;
+		try (InputStream in = new BufferedInputStream(CompressedInput.open(filename))) {
+			final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+			int ch;
+			while (line.size() < MAX_HEADER && (ch = in.read()) != -1) {
+				line.write(ch);
+				if (ch == '\n')
+					break;
+			}
+			return new String(line.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/*
+	 * Can a cached format be used for a file with the supplied header line, i.e. does the line separator of the format
+	 * match the terminator of the header.  If the header has no terminator then the separator cannot be checked.
+	 */
+	static boolean isCompatible(final String headerLine, final CsvFormat format) {
+		if (headerLine.endsWith("\r\n"))
+			return "\r\n".equals(format.getLineSeparatorString());
+		if (headerLine.endsWith("\n"))
+			return "\n".equals(format.getLineSeparatorString());
+		return false;
+	}
+
+	static String formatKey(final String headerLine) {
+		return digest("format", headerLine);
+	}
+
+	static String dataKey(final String headerLine, final DriverOptions options) {
+		return digest("data", headerLine, String.valueOf(options.field), String.valueOf(options.sample),
+				String.valueOf(options.seed), String.valueOf(options.profileAll), String.valueOf(options.maxOneOf));
+	}
+
+	static String specificationKey(final String filename, final DriverOptions options) throws IOException {
+		final MessageDigest digest = sha256();
+		try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+			final byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+		}
+		return digest("specification", hex(digest.digest()), String.valueOf(options.field),
+				String.valueOf(options.maxOneOf));
+	}
+
+	private static String digest(final String... components) {
+		final MessageDigest digest = sha256();
+		digest.update(Integer.toString(CACHE_VERSION).getBytes(StandardCharsets.UTF_8));
+		digest.update(CODE_VERSION.getBytes(StandardCharsets.UTF_8));
+		for (final String component : components) {
+			digest.update((byte)0);
+			digest.update(component.getBytes(StandardCharsets.UTF_8));
+		}
+		return hex(digest.digest());
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new InternalErrorException("SHA-256 not available", e);
+		}
+	}
+
+	private static String hex(final byte[] bytes) {
+		final StringBuilder ret = new StringBuilder(bytes.length * 2);
+		for (final byte b : bytes)
+			ret.append(String.format("%02x", b));
+		return ret.toString();
+	}
+
+	/*
+	 * Identify the code that generates the rules - the FTA and dqj versions.  If the version is not in the jar manifest
+	 * use the location and timestamp of the jar (or class directory) instead.
+	 */
+	private static String codeVersion() {
+		return version(TextAnalyzer.class) + "/" + version(RuleCache.class);
+	}
+
+	private static String version(final Class<?> clazz) {
+		final Package pkg = clazz.getPackage();
+		if (pkg != null && pkg.getImplementationVersion() != null)
+			return pkg.getImplementationVersion();
+
+		final CodeSource source = clazz.getProtectionDomain().getCodeSource();
+		if (source == null || source.getLocation() == null)
+			return "unknown";
+		final String location = source.getLocation().toString();
+		try {
+			return location + "@" + new File(source.getLocation().toURI()).lastModified();
+		}
+		catch (Exception e) {
+			return location;
+		}
+	}
+
+	private static ObjectNode asJSON(final Entry entry) {
+		final ObjectNode ret = RuleSet.MAPPER.createObjectNode();
+		if (entry.header != null) {
+			final ArrayNode header = ret.putArray("header");
+			for (final String field : entry.header)
+				header.add(field);
+		}
+		if (entry.format != null)
+			ret.set("format", formatAsJSON(entry.format));
+		if (entry.ruleSets != null) {
+			final ArrayNode ruleSets = ret.putArray("ruleSets");
+			for (final RuleSet ruleSet : entry.ruleSets)
+				ruleSets.add(ruleSet.asJSON());
+		}
+
+		return ret;
+	}
+
+	private static Entry fromJSON(final JsonNode node) {
+		String[] header = null;
+		if (node.has("header")) {
+			header = new String[node.get("header").size()];
+			for (int i = 0; i < header.length; i++)
+				header[i] = node.get("header").get(i).isNull() ? null : node.get("header").get(i).asText();
+		}
+
+		final CsvFormat format = node.has("format") ? formatFromJSON(node.get("format")) : null;
+
+		ArrayList<RuleSet> ruleSets = null;
+		if (node.has("ruleSets")) {
+			ruleSets = new ArrayList<>();
+			for (final JsonNode ruleSet : node.get("ruleSets"))
+				ruleSets.add(RuleSet.fromJSON(ruleSet));
+		}
+
+		return new Entry(header, format, ruleSets);
+	}
+
+	static ObjectNode formatAsJSON(final CsvFormat format) {
+		final ObjectNode ret = RuleSet.MAPPER.createObjectNode();
+		ret.put("delimiter", format.getDelimiterString());
+		ret.put("quote", String.valueOf(format.getQuote()));
+		ret.put("quoteEscape", String.valueOf(format.getQuoteEscape()));
+		ret.put("charToEscapeQuoteEscaping", String.valueOf(format.getCharToEscapeQuoteEscaping()));
+		ret.put("comment", String.valueOf(format.getComment()));
+		ret.put("lineSeparator", format.getLineSeparatorString());
+		ret.put("normalizedNewline", String.valueOf(format.getNormalizedNewline()));
+
+		return ret;
+	}
+
+	static CsvFormat formatFromJSON(final JsonNode node) {
+		final CsvFormat ret = new CsvFormat();
+		ret.setDelimiter(node.get("delimiter").asText());
+		ret.setQuote(node.get("quote").asText().charAt(0));
+		ret.setQuoteEscape(node.get("quoteEscape").asText().charAt(0));
+		ret.setCharToEscapeQuoteEscaping(node.get("charToEscapeQuoteEscaping").asText().charAt(0));
+		ret.setComment(node.get("comment").asText().charAt(0));
+		ret.setLineSeparator(node.get("lineSeparator").asText());
+		ret.setNormalizedNewline(node.get("normalizedNewline").asText().charAt(0));
+
+		return ret;
+	}
+}
@@ -18,6 +18,7 @@ package com.cobber.dqj;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -28,6 +29,10 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 public class RuleSet {
 	private String name;
 	private List<Rule> rules;
+	/* The cardinality of the profiled column (0 if unknown) - a sizing hint for validation, not part of the rules. */
+	private int cardinality;
+	/* The FTA type modifier of a profiled numeric column (null if unknown) - how to parse the bounds, not part of the rules. */
+	private String typeModifier;
 	final static ObjectMapper MAPPER = new ObjectMapper();
 
 	public RuleSet(final String name) {
@@ -59,6 +64,24 @@ public class RuleSet {
 		return ruleSet;
 	}
 
+	/**
+	 * Reconstruct a RuleSet from its JSON representation (see asJSON()).
+	 * @param node The JSON representation of the RuleSet.
+	 * @return The RuleSet.
+	 */
+	public static RuleSet fromJSON(final JsonNode node) {
+		final RuleSet ret = new RuleSet(node.get("name").asText());
+		for (final JsonNode rule : node.get("rules")) {
+			final JsonNode argumentsNode = rule.get("arguments");
+			final String[] arguments = new String[argumentsNode == null ? 0 : argumentsNode.size()];
+			for (int i = 0; i < arguments.length; i++)
+				arguments[i] = argumentsNode.get(i).isNull() ? null : argumentsNode.get(i).asText();
+			ret.add(new Rule(rule.get("name").asText(), arguments));
+		}
+
+		return ret;
+	}
+
 	private String fmt(final String input, final String type) {
 		if ("Long".equals(type) || "Double".equals(type))
 			return input;
@@ -104,6 +127,22 @@ public class RuleSet {
 		return b.toString();
 	}
 
+	int getCardinality() {
+		return cardinality;
+	}
+
+	void setCardinality(final int cardinality) {
+		this.cardinality = cardinality;
+	}
+
+	String getTypeModifier() {
+		return typeModifier;
+	}
+
+	void setTypeModifier(final String typeModifier) {
+		this.typeModifier = typeModifier;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/*
+ * A compact, versioned binary file of RuleSets.  Loading is a single memory-mapped read with no parsing beyond
+ * decoding the strings, which are held once in a string table (so, for example, OneOf members shared between
+ * fields are stored once).
+ *
+ * Layout (big-endian):
+ *   header:  magic "DQJR" (4), version (4), payload length (8), CRC32 of the payload (4)
+ *   payload: string count (4), per string: length (4, -1 for null) and UTF-8 bytes
+ *            RuleSet count (4), per RuleSet: name (4), Rule count (4), per Rule: name (4), argument count (4), arguments (4 each)
+ * All names and arguments are indices into the string table, the first entry of which is null.
+ */
+class RuleSetFile {
+	private static final int MAGIC = 0x44514A52;
+	/* Increment if the layout changes, files with a different version are rejected. */
+	static final int VERSION = 1;
+	private static final int HEADER_SIZE = 20;
+
+	/*
+	 * Is the file a binary RuleSet file (of any version)?
+	 */
+	static boolean isRuleSetFile(final String filename) throws IOException {
+		final Path path = Paths.get(filename);
+		if (!Files.isRegularFile(path))
+			return false;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final ByteBuffer magic = ByteBuffer.allocate(4);
+			return channel.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+		}
+	}
+
+	/*
+	 * Write the RuleSets, the file is replaced atomically.
+	 */
+	static void write(final String filename, final List<RuleSet> ruleSets) throws IOException {
+		final Map<String, Integer> index = new HashMap<>();
+		final List<String> strings = new ArrayList<>();
+		// The first entry in the string table is always null
+		strings.add(null);
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final DataOutputStream rules = new DataOutputStream(body);
+
+		rules.writeInt(ruleSets.size());
+		for (final RuleSet ruleSet : ruleSets) {
+			rules.writeInt(intern(ruleSet.getName(), index, strings));
+			rules.writeInt(ruleSet.getRules().size());
+			for (final Rule rule : ruleSet.getRules()) {
+				rules.writeInt(intern(rule.getName(), index, strings));
+				rules.writeInt(rule.getArguments().length);
+				for (final String argument : rule.getArguments())
+					rules.writeInt(intern(argument, index, strings));
+			}
+		}
+		rules.flush();
+
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(payload);
+		out.writeInt(strings.size());
+		for (final String string : strings) {
+			if (string == null)
+				out.writeInt(-1);
+			else {
+				final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+		body.writeTo(out);
+		out.flush();
+
+		final CRC32 crc = new CRC32();
+		crc.update(payload.toByteArray());
+
+		final Path target = Paths.get(filename).toAbsolutePath();
+		final Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream stream = Files.newOutputStream(temp); DataOutputStream file = new DataOutputStream(stream)) {
+				file.writeInt(MAGIC);
+				file.writeInt(VERSION);
+				file.writeLong(payload.size());
+				file.writeInt((int)crc.getValue());
+				payload.writeTo(file);
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static int intern(final String string, final Map<String, Integer> index, final List<String> strings) {
+		if (string == null)
+			return 0;
+		return index.computeIfAbsent(string, k -> { strings.add(k); return strings.size() - 1; });
+	}
+
+	/*
+	 * Read the RuleSets, the file is validated (magic, version, length and CRC) before it is decoded.
+	 */
+	static ArrayList<RuleSet> read(final String filename) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size < HEADER_SIZE)
+				throw new IOException("Not a RuleSet file (too short)");
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			if (buffer.getInt(0) != MAGIC)
+				throw new IOException("Not a RuleSet file (bad magic)");
+			final int version = buffer.getInt(4);
+			if (version != VERSION)
+				throw new IOException(String.format("Unsupported RuleSet file version %d (expected %d)", version, VERSION));
+			final long length = buffer.getLong(8);
+			if (length != size - HEADER_SIZE)
+				throw new IOException("RuleSet file is truncated");
+			final CRC32 crc = new CRC32();
+			final ByteBuffer payload = buffer.duplicate();
+			payload.position(HEADER_SIZE);
+			crc.update(payload);
+			if ((int)crc.getValue() != buffer.getInt(16))
+				throw new IOException("RuleSet file is corrupt (CRC mismatch)");
+
+			buffer.position(HEADER_SIZE);
+			final String[] strings = new String[buffer.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				final int bytes = buffer.getInt();
+				if (bytes >= 0) {
+					final byte[] content = new byte[bytes];
+					buffer.get(content);
+					strings[i] = new String(content, StandardCharsets.UTF_8);
+				}
+			}
+
+			final int count = buffer.getInt();
+			final ArrayList<RuleSet> ret = new ArrayList<>(count);
+			for (int r = 0; r < count; r++) {
+				final RuleSet ruleSet = new RuleSet(strings[buffer.getInt()]);
+				final int rules = buffer.getInt();
+				for (int i = 0; i < rules; i++) {
+					final String name = strings[buffer.getInt()];
+					final String[] arguments = new String[buffer.getInt()];
+					for (int a = 0; a < arguments.length; a++)
+						arguments[a] = strings[buffer.getInt()];
+					ruleSet.add(new Rule(name, arguments));
+				}
+				ret.add(ruleSet);
+			}
+
+			return ret;
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.cobber.fta.core.FTAPluginException;
+import com.univocity.parsers.common.TextParsingException;
+import com.univocity.parsers.csv.CsvFormat;
+import com.univocity.parsers.csv.CsvParser;
+
+/*
+ * Estimate the violation rate for each field by validating a random sample of records, rather than the entire file.
+ * Records are chosen uniformly by seeking to random offsets (see Sampler.UniformSeeker), so only the sampled records
+ * are read.  Sampling stops once the requested number of records have been validated, or earlier if the 95% confidence
+ * interval for the malformed rate and every field's violation rate is within the target precision.
+ * The outcome of each sampled record is retained (as the sample may need to be thinned to keep it uniform), so the
+ * memory used is proportional to the sample size.
+ * Note: record boundaries are assumed to be newlines, so files with embedded newlines in quoted fields should not be
+ * sampled.  The Unique rule is not enforced, and individual errors are not output (only the estimates).
+ */
+class SampledQuality {
+	/* The z-score for a 95% confidence interval. */
+	private static final double Z = 1.96;
+	/* The minimum number of records validated before stopping early, below this the intervals are not trustworthy. */
+	private static final int MIN_SAMPLE = 400;
+	/* How often (in records) to check whether the target precision has been reached. */
+	private static final int CHECK_INTERVAL = 100;
+	/* The violations of a record with none. */
+	private static final int[] NONE = new int[0];
+
+	private final String filename;
+	private final String[] header;
+	private final CsvFormat format;
+	private final ColumnValidator[] validators;
+
+	SampledQuality(final String filename, final String[] header, final CsvFormat format, final ColumnValidator[] validators) {
+		this.filename = filename;
+		this.header = header;
+		this.format = format;
+		this.validators = validators;
+	}
+
+	/*
+	 * A binomial proportion with its Wilson score interval (which behaves well for rates near 0, unlike the normal approximation).
+	 */
+	static final class Estimate {
+		final double rate;
+		final double lower;
+		final double upper;
+
+		Estimate(final long count, final long n) {
+			if (n == 0) {
+				rate = 0;
+				lower = 0;
+				upper = 1;
+				return;
+			}
+			rate = (double)count / n;
+			final double z2 = Z * Z;
+			final double denominator = 1 + z2 / n;
+			final double center = (rate + z2 / (2 * n)) / denominator;
+			final double halfWidth = Z * Math.sqrt(rate * (1 - rate) / n + z2 / (4.0 * n * n)) / denominator;
+			lower = Math.max(0, center - halfWidth);
+			upper = Math.min(1, center + halfWidth);
+		}
+
+		double halfWidth() {
+			return (upper - lower) / 2;
+		}
+	}
+
+	/*
+	 * The outcome of validating a sampled record - whether it was malformed and the fields that failed validation.
+	 */
+	private static final class Outcome implements RecordErrors {
+		final long start;
+		boolean malformed;
+		int[] violations = NONE;
+		int count;
+
+		Outcome(final long start) {
+			this.start = start;
+		}
+
+		@Override
+		public void malformed(final long record, final int fields, final int expected) {
+			malformed = true;
+		}
+
+		@Override
+		public void error(final int field, final long record, final String content) {
+			if (violations == NONE)
+				violations = new int[4];
+			else if (count == violations.length)
+				violations = Arrays.copyOf(violations, count * 2);
+			violations[count++] = field;
+		}
+	}
+
+	/*
+	 * The totals over the records currently in the sample.
+	 */
+	private static final class Tally {
+		long records;
+		long malformed;
+		final long[] violations;
+
+		Tally(final int fields) {
+			violations = new long[fields];
+		}
+
+		void add(final Outcome outcome, final int delta) {
+			records += delta;
+			if (outcome.malformed)
+				malformed += delta;
+			for (int i = 0; i < outcome.count; i++)
+				violations[outcome.violations[i]] += delta;
+		}
+	}
+
+	/*
+	 * Validate up to maxRecords randomly chosen records, stopping early if all the estimates are within the precision.
+	 */
+	void execute(final int maxRecords, final double precision, final Random random, final PrintStream out) throws IOException {
+		final CsvParser lineParser = new CsvParser(CsvInput.knownSettings(format));
+		// The report is required by validateRow(), the estimates are computed from the outcomes
+		final QualityReport report = new QualityReport(header);
+		final List<Outcome> sample = new ArrayList<>();
+		final Tally tally = new Tally(header.length);
+		final Set<Long> chosen = new HashSet<>();
+		long estimatedRecords;
+
+		try (Sampler.UniformSeeker seeker = new Sampler.UniformSeeker(filename, random)) {
+			final long maxAttempts = (long)Sampler.MAX_ATTEMPTS * maxRecords;
+			long accepted = 0;
+			long attempt = 0;
+			for (; !seeker.isEmpty() && tally.records < maxRecords && attempt < maxAttempts; attempt++) {
+				final Sampler.Record record = seeker.land();
+				if (record == null || chosen.contains(record.start))
+					continue;
+				final boolean accept = seeker.accept(record);
+				if (seeker.isThinning())
+					sample.removeIf(outcome -> {
+						if (seeker.retain())
+							return false;
+						tally.add(outcome, -1);
+						chosen.remove(outcome.start);
+						return true;
+					});
+				if (!accept)
+					continue;
+
+				final String[] row = lineParser.parseLine(record.line);
+				if (row == null)
+					continue;
+				final Outcome outcome = new Outcome(record.start);
+				Quality.validateRow(row, ++accepted, header, validators, report, outcome);
+				sample.add(outcome);
+				tally.add(outcome, 1);
+				chosen.add(record.start);
+
+				if (tally.records >= MIN_SAMPLE && accepted % CHECK_INTERVAL == 0 && isPrecise(tally, precision))
+					break;
+			}
+			estimatedRecords = seeker.estimatedRecords();
+			if (attempt == maxAttempts && tally.records < maxRecords)
+				System.err.printf("WARNING: Filename '%s' - only %d of the %d records requested could be sampled.%n", filename, tally.records, maxRecords);
+		}
+
+		// Only stopping early guarantees the precision, so say so if we ran out of records (or attempts) first
+		if (tally.records < MIN_SAMPLE || !isPrecise(tally, precision))
+			System.err.printf("WARNING: Filename '%s' - the target precision (+/- %s) was not reached.%n", filename, precision);
+
+		print(tally, estimatedRecords, out);
+	}
+
+	/*
+	 * Are the intervals for the malformed rate and every field's violation rate within the target precision?
+	 */
+	private boolean isPrecise(final Tally tally, final double precision) {
+		if (new Estimate(tally.malformed, tally.records).halfWidth() > precision)
+			return false;
+		final long wellFormed = tally.records - tally.malformed;
+		for (int i = 0; i < header.length; i++)
+			if (new Estimate(tally.violations[i], wellFormed).halfWidth() > precision)
+				return false;
+		return true;
+	}
+
+	private void print(final Tally tally, final long estimatedRecords, final PrintStream out) {
+		final long wellFormed = tally.records - tally.malformed;
+		out.printf("Sampled records: %d (of approximately %d), malformed: %s%n", tally.records, estimatedRecords,
+				format(new Estimate(tally.malformed, tally.records)));
+		for (int i = 0; i < header.length; i++)
+			out.printf("Field '%s'(%d): violations %s%n", header[i], i, format(new Estimate(tally.violations[i], wellFormed)));
+	}
+
+	private static String format(final Estimate estimate) {
+		return String.format("%.3f%% (95%% CI %.3f%% - %.3f%%)", estimate.rate * 100, estimate.lower * 100, estimate.upper * 100);
+	}
+
+	/*
+	 * Validate a sample of the records in the file, using the supplied rules.
+	 */
+	static void execute(final String filename, final ArrayList<RuleSet> allRules, final DriverOptions options) throws FTAPluginException {
+		final ArrayList<ColumnValidator> compiled = Quality.compile(allRules);
+		String[] header = null;
+		CsvFormat format = null;
+
+		try {
+			// All we need from the start of the file is the header and format
+			try (CsvInput input = new CsvInput(filename)) {
+				header = input.header;
+				format = input.getFormat();
+			}
+			if (header == null) {
+				System.err.printf("ERROR: Cannot parse header for file '%s'%n", filename);
+				System.exit(1);
+			}
+			final Random random = options.seed == null ? new Random() : new Random(options.seed);
+			new SampledQuality(filename, header, format, Quality.validators(header, compiled, options))
+					.execute(options.qualitySample, options.precision, random, System.err);
+		}
+		catch (FileNotFoundException|NoSuchFileException e) {
+			System.err.printf("ERROR: Filename '%s' not found.%n", filename);
+			System.exit(1);
+		}
+		catch (TextParsingException e) {
+			System.err.printf("ERROR: Filename '%s' Univocity exception. %s%n", filename, e.getMessage());
+			System.exit(1);
+		}
+		catch (IOException e) {
+			System.err.printf("ERROR: Filename '%s' IOException. %s%n", filename, e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.univocity.parsers.csv.CsvFormat;
+import com.univocity.parsers.csv.CsvParser;
+
+/*
+ * Draw a uniform random sample of records from a file.
+ *  - Regular files are sampled by seeking to random offsets (see UniformSeeker), so only the sampled records (and the
+ *    header) are read.
+ *  - Anything else (e.g. a pipe or a compressed file) is read in its entirety using reservoir sampling.
+ * Note: record boundaries are assumed to be newlines, so files with embedded newlines in quoted fields should not be
+ * sampled by seeking.
+ */
+class Sampler {
+	/* Files smaller than this are cheaper to read in full than to seek around in. */
+	private static final long MIN_SEEKABLE_SIZE = 4 * 1024 * 1024;
+	/* Bound on the number of seeks per record sampled, if the file has fewer records than the sample we will see repeats. */
+	static final int MAX_ATTEMPTS = 64;
+
+	static class Sample {
+		final String[] header;
+		final CsvFormat format;
+		final List<String[]> rows;
+
+		Sample(final String[] header, final CsvFormat format, final List<String[]> rows) {
+			this.header = header;
+			this.format = format;
+			this.rows = rows;
+		}
+	}
+
+	private final int size;
+	private final Random random;
+
+	Sampler(final int size, final Random random) {
+		this.size = size;
+		this.random = random;
+	}
+
+	Sample sample(final String filename) throws IOException {
+		final Path path = Paths.get(filename);
+		if (Files.isRegularFile(path) && Files.size(path) >= MIN_SEEKABLE_SIZE && !CompressedInput.isCompressed(filename))
+			return seek(filename);
+
+		return reservoir(filename);
+	}
+
+	/*
+	 * Classic reservoir sampling (Algorithm R) - every record has an equal probability of being in the sample.
+	 */
+	Sample reservoir(final String filename) throws IOException {
+		try (BufferedReader in = new BufferedReader(CsvInput.open(filename))) {
+			final CsvParser parser = new CsvParser(CsvInput.detectingSettings());
+			parser.beginParsing(in);
+			final String[] header = parser.getRecordMetadata().headers();
+			final List<String[]> rows = new ArrayList<>(size);
+
+			long seen = 0;
+			String[] row;
+			while ((row = parser.parseNext()) != null) {
+				seen++;
+				if (rows.size() < size)
+					rows.add(row);
+				else {
+					final long slot = (long)(random.nextDouble() * seen);
+					if (slot < size)
+						rows.set((int)slot, row);
+				}
+			}
+
+			return new Sample(header, parser.getDetectedFormat(), rows);
+		}
+	}
+
+	/*
+	 * Sample by seeking to random offsets in the file, each offset is advanced to the start of the next record.
+	 */
+	Sample seek(final String filename) throws IOException {
+		String[] header;
+		CsvFormat format;
+		try (BufferedReader in = new BufferedReader(CsvInput.open(filename))) {
+			final CsvParser parser = new CsvParser(CsvInput.detectingSettings());
+			parser.beginParsing(in);
+			header = parser.getRecordMetadata().headers();
+			format = parser.getDetectedFormat();
+			parser.stopParsing();
+		}
+
+		final CsvParser lineParser = new CsvParser(CsvInput.knownSettings(format));
+		final List<Long> starts = new ArrayList<>(size);
+		final List<String[]> rows = new ArrayList<>(size);
+		final Set<Long> chosen = new HashSet<>();
+
+		try (UniformSeeker seeker = new UniformSeeker(filename, random)) {
+			final long maxAttempts = (long)MAX_ATTEMPTS * size;
+			long attempt = 0;
+			for (; !seeker.isEmpty() && rows.size() < size && attempt < maxAttempts; attempt++) {
+				final Record record = seeker.land();
+				if (record == null || chosen.contains(record.start))
+					continue;
+				final boolean accepted = seeker.accept(record);
+				if (seeker.isThinning())
+					for (int i = rows.size() - 1; i >= 0; i--)
+						if (!seeker.retain()) {
+							chosen.remove(starts.remove(i));
+							rows.remove(i);
+						}
+				if (accepted) {
+					chosen.add(record.start);
+					starts.add(record.start);
+					rows.add(lineParser.parseLine(record.line));
+				}
+			}
+			if (attempt == maxAttempts && rows.size() < size)
+				System.err.printf("WARNING: Filename '%s' - only %d of the %d records requested could be sampled.%n", filename, rows.size(), size);
+		}
+
+		return new Sample(header, format, rows);
+	}
+
+	/*
+	 * A record located by seeking - its offset, its length in bytes (including the line terminator) and its content
+	 * (excluding the line terminator).
+	 */
+	static final class Record {
+		final long start;
+		final long length;
+		final String line;
+
+		Record(final long start, final long length, final String line) {
+			this.start = start;
+			this.length = length;
+			this.line = line;
+		}
+	}
+
+	/*
+	 * Select records uniformly at random from a regular (uncompressed) file by seeking.
+	 * A random byte offset lands in the record containing it, so a record is landed in with probability proportional to
+	 * its length.  This is corrected by rejection - a record of length L is accepted with probability shortest/L, where
+	 * shortest is the length of the shortest record landed in so far.  When a shorter record is found every record
+	 * previously accepted must be retained with probability newShortest/oldShortest (see isThinning() and retain()), so
+	 * that every record in the sample has been accepted with probability shortest/L - i.e. the sample is uniform.
+	 * A single very short record (e.g. a trailer) would drive the acceptance rate towards zero, so lengths are floored
+	 * at a fraction of the mean record length (estimated from a few initial landings).  This bounds the expected number
+	 * of landings per record accepted (at about MAX_REJECTION), at the cost of under-sampling records shorter than the
+	 * floor.
+	 * Empty lines are not records, so landing in one yields null.
+	 */
+	static final class UniformSeeker implements Closeable {
+		/* Number of landings used to estimate the mean record length. */
+		private static final int PILOT_LANDINGS = 256;
+		/* Lengths are floored at the mean record length divided by this. */
+		private static final int MAX_REJECTION = 16;
+
+		private final FileChannel channel;
+		private final Random random;
+		private final long fileSize;
+		private final long headerEnd;
+		private final long floor;
+		private long shortest = Long.MAX_VALUE;
+		private double retained = 1.0;
+		private long landings;
+		private double inverseLengths;
+
+		UniformSeeker(final String filename, final Random random) throws IOException {
+			this.channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+			this.random = random;
+			fileSize = channel.size();
+			headerEnd = Partition.align(channel, 1);
+			floor = isEmpty() ? 1 : Math.max(1, Math.round(meanLength() / MAX_REJECTION));
+		}
+
+		/*
+		 * Estimate the mean record length from a few landings - the harmonic mean of the lengths landed in, since a
+		 * landing is in a record with probability proportional to its length.
+		 */
+		private double meanLength() throws IOException {
+			int records = 0;
+			double sum = 0;
+			for (int i = 0; i < PILOT_LANDINGS; i++) {
+				final Record record = land();
+				if (record != null) {
+					records++;
+					sum += 1.0 / record.length;
+				}
+			}
+			return records == 0 ? 1 : records / sum;
+		}
+
+		/* Are there no records (after the header)? */
+		boolean isEmpty() {
+			return headerEnd >= fileSize;
+		}
+
+		/*
+		 * Land in the record containing a random offset, null if it is an empty line.
+		 */
+		Record land() throws IOException {
+			final long offset = headerEnd + (long)(random.nextDouble() * (fileSize - headerEnd));
+			final long start = Partition.recordStart(channel, offset, headerEnd);
+			final byte[] bytes = readRecord(channel, start);
+			landings++;
+			final String line = decode(bytes);
+			if (line.isEmpty())
+				return null;
+			inverseLengths += 1.0 / bytes.length;
+			return new Record(start, bytes.length, line);
+		}
+
+		/*
+		 * Decide whether to accept the record, if it is the shortest so far then isThinning() is true until the next call.
+		 */
+		boolean accept(final Record record) {
+			final long length = Math.max(record.length, floor);
+			retained = 1.0;
+			if (length < shortest) {
+				if (shortest != Long.MAX_VALUE)
+					retained = (double)length / shortest;
+				shortest = length;
+			}
+			return random.nextDouble() * length < shortest;
+		}
+
+		/* Must the records previously accepted be thinned (using retain()) to keep the sample uniform? */
+		boolean isThinning() {
+			return retained < 1.0;
+		}
+
+		/* Should a previously accepted record be retained? */
+		boolean retain() {
+			return random.nextDouble() < retained;
+		}
+
+		/*
+		 * Estimate the number of records in the file - each landing is in a record with probability proportional to its
+		 * length, so the mean of 1/length over the landings estimates records/bytes.
+		 */
+		long estimatedRecords() {
+			return landings == 0 ? 0 : Math.round((fileSize - headerEnd) * inverseLengths / landings);
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/*
+	 * Read the record starting at the supplied offset (excluding the line terminator).
+	 */
+	static String readLine(final FileChannel channel, final long start) throws IOException {
+		return decode(readRecord(channel, start));
+	}
+
+	/*
+	 * Read the bytes of the record starting at the supplied offset, including the line terminator (if any).
+	 */
+	static byte[] readRecord(final FileChannel channel, final long start) throws IOException {
+		final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+		final ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long position = start;
+
+		while (true) {
+			buffer.clear();
+			final int read = channel.read(buffer, position);
+			if (read <= 0)
+				break;
+			int end = -1;
+			for (int i = 0; i < read; i++)
+				if (buffer.get(i) == '\n') {
+					end = i + 1;
+					break;
+				}
+			line.write(buffer.array(), 0, end == -1 ? read : end);
+			if (end != -1)
+				break;
+			position += read;
+		}
+
+		return line.toByteArray();
+	}
+
+	/*
+	 * Decode a record, dropping the line terminator.
+	 */
+	private static String decode(final byte[] bytes) {
+		int length = bytes.length;
+		if (length > 0 && bytes[length - 1] == '\n')
+			length--;
+		if (length > 0 && bytes[length - 1] == '\r')
+			length--;
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+}
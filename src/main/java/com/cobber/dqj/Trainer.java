@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.cobber.fta.AnalyzerContext;
+import com.cobber.fta.TextAnalyzer;
+import com.cobber.fta.core.FTAPluginException;
+import com.cobber.fta.core.FTAUnsupportedLocaleException;
+import com.cobber.fta.core.InternalErrorException;
+import com.cobber.fta.dates.DateTimeParser.DateResolutionMode;
+
+/*
+ * Train a TextAnalyzer for every field in the file.
+ * The TextAnalyzers are independent, so a batch of rows can be trained in parallel by splitting the fields into
+ * groups and training each group on its own thread.  Each TextAnalyzer still sees the rows in the same order
+ * (and only ever on one thread at a time) so the resulting profiles are identical to training sequentially.
+ */
+class Trainer {
+	private final String[] header;
+	private final TextAnalyzer[] analyzers;
+
+	/*
+	 * @param maxOneOf OneOf Rules are generated for String fields with a cardinality less than this, so the analyzers
+	 * must track at least this many distinct values for the cardinality detail to be complete.
+	 */
+	Trainer(final String filename, final String[] header, final int maxOneOf) {
+		this.header = header;
+		analyzers = new TextAnalyzer[header.length];
+
+		for (int i = 0; i < header.length; i++) {
+			analyzers[i] = new TextAnalyzer(new AnalyzerContext(header[i] == null ? "" : header[i].trim(),
+					DateResolutionMode.Auto, filename, header));
+			if (maxOneOf > analyzers[i].getMaxCardinality())
+				analyzers[i].setMaxCardinality(maxOneOf);
+		}
+	}
+
+	/*
+	 * Train a single row on the current thread.
+	 */
+	void train(final String[] row) throws FTAPluginException, FTAUnsupportedLocaleException {
+		final long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+		for (int i = 0; i < analyzers.length; i++)
+			analyzers[i].train(row[i]);
+		if (Metrics.isEnabled())
+			Metrics.INSTANCE.train.since(start);
+	}
+
+	/*
+	 * Train a batch of rows, with the fields split across the threads in the pool.
+	 */
+	void train(final List<String[]> rows, final ExecutorService pool, final int threads) throws FTAPluginException, FTAUnsupportedLocaleException {
+		// Use more groups than threads so that a few expensive fields do not leave the other threads idle
+		final int groups = Math.min(analyzers.length, threads * 4);
+		final List<Callable<Void>> tasks = new ArrayList<>(groups);
+
+		for (int g = 0; g < groups; g++) {
+			final int group = g;
+			tasks.add(() -> {
+				for (int i = group; i < analyzers.length; i += groups) {
+					final TextAnalyzer analyzer = analyzers[i];
+					for (final String[] row : rows)
+						analyzer.train(row[i]);
+				}
+				return null;
+			});
+		}
+
+		final long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+		try {
+			for (final Future<Void> future : pool.invokeAll(tasks))
+				future.get();
+			if (Metrics.isEnabled())
+				Metrics.INSTANCE.train.since(start);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InternalErrorException("Training interrupted", e);
+		}
+		catch (ExecutionException e) {
+			throw rethrow(e);
+		}
+	}
+
+	/*
+	 * Rethrow the FTA exception that caused a training task to fail, any other cause is wrapped.
+	 */
+	static InternalErrorException rethrow(final ExecutionException e) throws FTAPluginException, FTAUnsupportedLocaleException {
+		final Throwable cause = e.getCause();
+		if (cause instanceof FTAPluginException)
+			throw (FTAPluginException)cause;
+		if (cause instanceof FTAUnsupportedLocaleException)
+			throw (FTAUnsupportedLocaleException)cause;
+		return new InternalErrorException("Training failed", cause);
+	}
+
+	/*
+	 * Merge the analyzers from another Trainer (trained on a different set of rows from the same file) into this one.
+	 */
+	void merge(final Trainer other) throws FTAPluginException, FTAUnsupportedLocaleException {
+		for (int i = 0; i < analyzers.length; i++)
+			analyzers[i] = TextAnalyzer.merge(analyzers[i], other.analyzers[i]);
+	}
+
+	String[] getHeader() {
+		return header;
+	}
+
+	TextAnalyzer[] getAnalyzers() {
+		return analyzers;
+	}
+
+	ProxyProfile[] getProfiles() throws FTAPluginException, FTAUnsupportedLocaleException {
+		final ProxyProfile[] results = new ProxyProfile[analyzers.length];
+
+		for (int i = 0; i < analyzers.length; i++)
+			results[i] = new ProxyProfile(analyzers[i].getResult());
+
+		return results;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/*
+ * Enforces the Unique rule - which unlike the other rules cannot be checked one cell at a time.
+ * Each non-blank value in a Unique column is reduced to a 128-bit fingerprint which is added to a FingerprintTable
+ * for the column, the duplicates are reported once all the records have been seen.  The chance of two distinct
+ * values sharing a fingerprint is negligible even for billions of values.
+ * Values must be added in record order, from a single thread.
+ */
+class UniqueChecker implements Closeable {
+	private final int numFields;
+	private final int[] fields;
+	private final FingerprintTable[] tables;
+	private long hi;
+	private long lo;
+
+	private UniqueChecker(final int numFields, final int[] fields, final long budget) {
+		this.numFields = numFields;
+		this.fields = fields;
+		tables = new FingerprintTable[fields.length];
+		for (int i = 0; i < fields.length; i++)
+			tables[i] = new FingerprintTable(budget / fields.length);
+	}
+
+	/*
+	 * Create a UniqueChecker for the fields whose validator has a Unique rule, returns null if there are none.
+	 * @param budget The memory (in bytes) to use for the fingerprint tables, shared across all the Unique fields.
+	 */
+	static UniqueChecker create(final ColumnValidator[] validators, final long budget) {
+		int count = 0;
+		for (final ColumnValidator validator : validators)
+			if (validator.isUnique())
+				count++;
+		if (count == 0)
+			return null;
+
+		final int[] fields = new int[count];
+		count = 0;
+		for (int i = 0; i < validators.length; i++)
+			if (validators[i].isUnique())
+				fields[count++] = i;
+
+		return new UniqueChecker(validators.length, fields, budget);
+	}
+
+	/*
+	 * Add the values from a record, malformed records are ignored.
+	 */
+	void add(final long record, final CharSequence[] row) throws IOException {
+		if (row.length != numFields)
+			return;
+		for (int i = 0; i < fields.length; i++) {
+			final CharSequence value = row[fields[i]];
+			if (value == null || ColumnValidator.isBlank(value))
+				continue;
+			fingerprint(value);
+			tables[i].add(hi, lo, record);
+		}
+	}
+
+	/*
+	 * Report all the duplicates to the report and sink (if supplied).
+	 */
+	void finish(final QualityReport report, final ErrorSink errors) throws IOException {
+		for (int i = 0; i < fields.length; i++) {
+			final int field = fields[i];
+			tables[i].finish((record, previous) -> {
+				report.addDuplicate(field);
+				if (errors != null)
+					errors.duplicate(field, record, previous);
+			});
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (final FingerprintTable table : tables)
+			table.close();
+	}
+
+	/*
+	 * Compute the 128-bit fingerprint of the value into hi/lo, two independent 64-bit hashes of the characters
+	 * each finished with the MurmurHash3 finalizer.
+	 */
+	private void fingerprint(final CharSequence value) {
+		long h1 = 0x9E3779B97F4A7C15L;
+		long h2 = 0xC2B2AE3D27D4EB4FL;
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			final char ch = value.charAt(i);
+			h1 = (h1 ^ ch) * 0x100000001B3L;
+			h2 = Long.rotateLeft(h2 + ch * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+		}
+		hi = mix(h1 ^ length);
+		lo = mix(h2 + length);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of validating a batch of records with a {@link Validator} - the summary report plus the individual errors.
+ */
+public class ValidationResult {
+	/**
+	 * An individual error, either a field that failed validation or a record with the wrong number of fields.
+	 */
+	public static class Violation {
+		/** The record number. */
+		public final long record;
+		/** The index of the field, or -1 if the record was malformed. */
+		public final int field;
+		/** The name of the field, or null if the record was malformed. */
+		public final String fieldName;
+		/** The content of the field (may be null), or a description of the problem if the record was malformed. */
+		public final String content;
+
+		Violation(final long record, final int field, final String fieldName, final String content) {
+			this.record = record;
+			this.field = field;
+			this.fieldName = fieldName;
+			this.content = content;
+		}
+
+		public boolean isMalformed() {
+			return field == -1;
+		}
+	}
+
+	private final String[] header;
+	private final int maxErrors;
+	private final QualityReport report;
+	private final List<Violation> violations = new ArrayList<>();
+	private final long[] retained;
+	private long retainedMalformed;
+
+	ValidationResult(final String[] header, final int maxErrors) {
+		this.header = header;
+		this.maxErrors = maxErrors;
+		report = new QualityReport(header);
+		retained = new long[header.length];
+	}
+
+	/**
+	 * Are all the records in the batch valid?
+	 * @return True if no records were malformed and no fields failed validation.
+	 */
+	public boolean isValid() {
+		if (report.getMalformed() != 0)
+			return false;
+		for (int i = 0; i < header.length; i++)
+			if (report.getViolations(i) != 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * The summary of the batch (record counts, violations, nulls and blanks per field).
+	 * @return The QualityReport for the batch.
+	 */
+	public QualityReport getReport() {
+		return report;
+	}
+
+	/**
+	 * The individual errors in record order, at most maxErrors per field (and maxErrors malformed records) are retained.
+	 * @return The errors detected.
+	 */
+	public List<Violation> getViolations() {
+		return Collections.unmodifiableList(violations);
+	}
+
+	/*
+	 * The ErrorSink that records the errors in this result.
+	 */
+	ErrorSink sink() {
+		return new ErrorSink() {
+			@Override
+			public void malformed(final long record, final int fields, final int expected) {
+				if (retainedMalformed++ < maxErrors)
+					violations.add(new Violation(record, -1, null, String.format("Record has %d fields, expected %d", fields, expected)));
+			}
+
+			@Override
+			public void error(final int field, final long record, final String content) {
+				if (retained[field]++ < maxErrors)
+					violations.add(new Violation(record, field, header[field], content));
+			}
+
+			@Override
+			public void duplicate(final int field, final long record, final long previous) {
+				error(field, record, null);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.cobber.fta.core.FTAException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * A long-running validation server, listening on the loopback interface only.  The compiled ColumnValidators (and
+ * hence the Semantic Type plugins) are retained between requests, so a request pays only for the validation.
+ *
+ *   POST /validate?file=<data file>   - validate the named file
+ *   POST /validate                    - validate the CSV (including the header) in the request body
+ *
+ * Optional parameters: specification=<file> (otherwise the server's --specification, or rules generated from the
+ * initial records and retained for subsequent requests with the same header), errors=Text|JSONL|CSV, maxErrors=<n>
+ * and summary=true.  The response is the output of the equivalent CLI invocation.
+ */
+class ValidationServer {
+	private final DriverOptions options;
+	private final String specificationFile;
+	/* The compiled rules, keyed by specification file or (for generated rules) by the header of the data. */
+	private final Map<String, ArrayList<ColumnValidator>> compiled = new ConcurrentHashMap<>();
+	private final int threads;
+	private HttpServer server;
+
+	ValidationServer(final DriverOptions options, final String specificationFile) {
+		this.options = options;
+		this.specificationFile = specificationFile;
+		threads = Math.max(1, options.threads);
+	}
+
+	/*
+	 * Start the server on the supplied port (0 to select an ephemeral port), returns the port in use.
+	 */
+	int start(final int port) throws IOException, FTAException {
+		// Load the default specification up front, so a broken specification is reported before we start listening
+		if (specificationFile != null)
+			validators(specificationFile, null, null);
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/validate", this::handle);
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.start();
+
+		return server.getAddress().getPort();
+	}
+
+	void stop() {
+		server.stop(0);
+		((ExecutorService)server.getExecutor()).shutdown();
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				reply(exchange, 405, "Method must be POST");
+				return;
+			}
+
+			final Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+			final String errorFormat = parameters.getOrDefault("errors", options.errors);
+			if (!BufferedErrorSink.isFormat(errorFormat)) {
+				reply(exchange, 400, String.format("Unknown error format '%s', expected Text, JSONL or CSV", errorFormat));
+				return;
+			}
+			final int maxErrors = parameters.containsKey("maxErrors") ? Integer.parseInt(parameters.get("maxErrors")) : options.maxErrors;
+			final boolean summary = parameters.containsKey("summary") ? Boolean.parseBoolean(parameters.get("summary")) : options.summary;
+			final String filename = parameters.get("file");
+			final String specification = parameters.getOrDefault("specification", specificationFile);
+
+			final Reader reader = filename != null ?
+					CsvInput.open(filename) :
+					new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8);
+			try (CsvInput input = new CsvInput(filename != null ? filename : "<request>", reader, null)) {
+				if (input.header == null) {
+					reply(exchange, 422, "Cannot parse header");
+					return;
+				}
+
+				// If we are generating the rules then the initial records are needed to train on (if not already known)
+				final List<String[]> prefix = specification == null ? Driver.readPrefix(input.parser) : Collections.emptyList();
+				final ColumnValidator[] validators = validators(specification, input, prefix);
+
+				exchange.getResponseHeaders().set("Content-Type", contentType(errorFormat));
+				exchange.sendResponseHeaders(200, 0);
+				try (OutputStream out = exchange.getResponseBody()) {
+					final QualityReport report;
+					try (ErrorSink errors = BufferedErrorSink.create(errorFormat, input.header, maxErrors, out)) {
+						report = Quality.validate(input, prefix, validators, errors, 1, filename != null && options.mapped, options.uniqueMemory * 1024 * 1024 / threads);
+					}
+					if (summary) {
+						final PrintStream printer = new PrintStream(out, false, Charset.defaultCharset().name());
+						report.print(printer);
+						printer.flush();
+					}
+				}
+			}
+		}
+		catch (FileNotFoundException e) {
+			reply(exchange, 404, e.getMessage());
+		}
+		catch (NumberFormatException e) {
+			reply(exchange, 400, "Invalid parameter. " + e.getMessage());
+		}
+		catch (FTAException|RuntimeException e) {
+			reply(exchange, 500, e.getMessage());
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	/*
+	 * Return the validators for the data - either compiled from the specification, or generated by training on the
+	 * supplied initial records.  Once compiled the validators are retained for subsequent requests.
+	 */
+	private ColumnValidator[] validators(final String specification, final CsvInput input, final List<String[]> prefix) throws FTAException {
+		final String key = specification != null ? "specification:" + specification : "header:" + String.join("\u0000", input.header);
+		ArrayList<ColumnValidator> ret = compiled.get(key);
+		if (ret == null) {
+			// Note: two concurrent requests for the same new key may both compile, the result is the same either way
+			final ArrayList<RuleSet> allRuleSets = specification != null ?
+					Driver.generateRuleSetsFromSpecification(specification, options) :
+					Driver.generateRuleSetsFromRows(input.filename, input.header, Driver.trainingRows(prefix, input.header.length, false), options);
+			ret = Quality.compile(allRuleSets);
+			compiled.put(key, ret);
+		}
+
+		return input == null ? null : Quality.validators(input.header, ret, options);
+	}
+
+	private static String contentType(final String errorFormat) {
+		if ("jsonl".equalsIgnoreCase(errorFormat))
+			return "application/x-ndjson; charset=UTF-8";
+		if ("csv".equalsIgnoreCase(errorFormat))
+			return "text/csv; charset=UTF-8";
+		return "text/plain; charset=" + Charset.defaultCharset().name();
+	}
+
+	private static Map<String, String> parameters(final String query) throws UnsupportedEncodingException {
+		final Map<String, String> ret = new HashMap<>();
+		if (query == null)
+			return ret;
+		for (final String parameter : query.split("&")) {
+			final int equals = parameter.indexOf('=');
+			if (equals == -1)
+				ret.put(URLDecoder.decode(parameter, "UTF-8"), "true");
+			else
+				ret.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+		}
+
+		return ret;
+	}
+
+	/*
+	 * Send a response with just a status and a message, only possible if the response has not yet been started.
+	 */
+	private static void reply(final HttpExchange exchange, final int status, final String message) throws IOException {
+		if (exchange.getResponseCode() != -1)
+			return;
+		final byte[] body = ((message == null ? "Error" : message) + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.cobber.fta.core.FTAPluginException;
+
+/**
+ * Validate batches of records in-process.  The Rules are compiled once when the Validator is constructed, after which
+ * the Validator is immutable and may be shared across threads - each call to validate returns an independent result.
+ * No files are read or written, and failures are reported as exceptions.
+ * The fields of a record are expected in the same order as the RuleSets (i.e. the order of the header).
+ * Note: the Unique rule is not enforced since it requires state across batches (and spilling to disk).
+ */
+public class Validator {
+	private final String[] header;
+	private final ColumnValidator[] validators;
+	private final int maxErrors;
+
+	/**
+	 * Construct a Validator from a set of RuleSets, all errors are retained in the result.
+	 * @param ruleSets The RuleSets, one per field in field order.
+	 * @throws FTAPluginException If a Semantic Type plugin cannot be instantiated.
+	 */
+	public Validator(final List<RuleSet> ruleSets) throws FTAPluginException {
+		this(ruleSets, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Construct a Validator from a set of RuleSets.
+	 * @param ruleSets The RuleSets, one per field in field order.
+	 * @param maxErrors The maximum number of errors retained in the result per field, further errors are only counted.
+	 * @throws FTAPluginException If a Semantic Type plugin cannot be instantiated.
+	 */
+	public Validator(final List<RuleSet> ruleSets, final int maxErrors) throws FTAPluginException {
+		this.maxErrors = maxErrors;
+		header = new String[ruleSets.size()];
+		validators = new ColumnValidator[ruleSets.size()];
+		for (int i = 0; i < header.length; i++) {
+			header[i] = ruleSets.get(i).getName();
+			validators[i] = ColumnValidator.compile(ruleSets.get(i));
+		}
+	}
+
+	/**
+	 * Construct a Validator from a specification (the JSON output of FTA).
+	 * @param specification A reader for the specification, this is closed once the specification has been read.
+	 * @return A Validator which enforces the Rules generated from the specification.
+	 * @throws FTAPluginException If a Semantic Type plugin cannot be instantiated.
+	 */
+	public static Validator fromSpecification(final Reader specification) throws FTAPluginException {
+		return new Validator(Driver.generateRuleSetsFromSpecification(specification, new DriverOptions()));
+	}
+
+	/**
+	 * Construct a Validator from a binary RuleSet file (as written by --export).
+	 * @param filename The name of the RuleSet file.
+	 * @return A Validator which enforces the Rules in the file.
+	 * @throws IOException If the file cannot be read, or is not a valid RuleSet file.
+	 * @throws FTAPluginException If a Semantic Type plugin cannot be instantiated.
+	 */
+	public static Validator fromRuleSetFile(final String filename) throws IOException, FTAPluginException {
+		return new Validator(RuleSetFile.read(filename));
+	}
+
+	/**
+	 * The names of the fields, in the order they are expected in each record.
+	 * @return The field names.
+	 */
+	public String[] getHeader() {
+		return Arrays.copyOf(header, header.length);
+	}
+
+	/**
+	 * Validate a batch of records, numbered from 1.
+	 * @param records The records to validate.
+	 * @return The result of validating the batch.
+	 */
+	public ValidationResult validate(final List<String[]> records) {
+		return validate(records, 0);
+	}
+
+	/**
+	 * Validate a batch of records.
+	 * @param records The records to validate.
+	 * @param initialRecord The number of records preceding this batch, the first record in the batch is numbered initialRecord + 1.
+	 * @return The result of validating the batch.
+	 */
+	public ValidationResult validate(final List<String[]> records, final long initialRecord) {
+		final ValidationResult result = new ValidationResult(header, maxErrors);
+		final ErrorSink sink = result.sink();
+		long thisRecord = initialRecord;
+		for (final String[] record : records)
+			Quality.validateRow(record, ++thisRecord, header, validators, result.getReport(), sink);
+
+		return result;
+	}
+
+	/**
+	 * Validate a batch of records, each supplied as a map from field name to value, numbered from 1.
+	 * @param records The records to validate.
+	 * @return The result of validating the batch.
+	 */
+	public ValidationResult validateMaps(final List<Map<String, String>> records) {
+		return validateMaps(records, 0);
+	}
+
+	/**
+	 * Validate a batch of records, each supplied as a map from field name to value.  Missing fields are treated as
+	 * null, and entries that do not correspond to a field are ignored.
+	 * @param records The records to validate.
+	 * @param initialRecord The number of records preceding this batch, the first record in the batch is numbered initialRecord + 1.
+	 * @return The result of validating the batch.
+	 */
+	public ValidationResult validateMaps(final List<Map<String, String>> records, final long initialRecord) {
+		final List<String[]> rows = new ArrayList<>(records.size());
+		for (final Map<String, String> record : records) {
+			final String[] row = new String[header.length];
+			for (int i = 0; i < header.length; i++)
+				row[i] = record.get(header[i]);
+			rows.add(row);
+		}
+
+		return validate(rows, initialRecord);
+	}
+}
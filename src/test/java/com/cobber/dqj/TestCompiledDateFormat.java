@@ -0,0 +1,225 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
+import java.time.temporal.TemporalAccessor;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * The compiled date parser must agree with java.time - both on the key for valid values and on which values are valid.
+ */
+public class TestCompiledDateFormat {
+	/* Formats handled by the compiled parser - {FTA type, format, minimum year, maximum year}. */
+	private static final String[][] COMPILED = {
+		{ "LocalDate", "yyyy-MM-dd", "1", "9999" },
+		{ "LocalDate", "yyyyMMdd", "1", "9999" },
+		{ "LocalDate", "M/d/yyyy", "1000", "9999" },
+		{ "LocalDate", "dd MMM yyyy", "1", "9999" },
+		{ "LocalDate", "d MMMM yy", "2000", "2099" },
+		{ "LocalDate", "dd.MM.yy", "2000", "2099" },
+		{ "LocalDateTime", "yyyy-MM-dd HH:mm:ss", "1", "9999" },
+		{ "LocalDateTime", "yyyy-MM-dd'T'HH:mm:ss.SSS", "1", "9999" },
+		{ "LocalDateTime", "yyyy-MM-dd HH:mm:ss.SSSSSSSSS", "1", "9999" },
+		{ "LocalDateTime", "MM/dd/yyyy h:mm a", "1", "9999" },
+		{ "LocalDateTime", "d MMMM yyyy HH:mm", "1", "9999" },
+		{ "LocalTime", "HH:mm:ss", "1970", "1970" },
+		{ "LocalTime", "h:mm:ss a", "1970", "1970" },
+		{ "LocalTime", "HH:mm:ss.SSS", "1970", "1970" },
+		{ "OffsetDateTime", "yyyy-MM-dd'T'HH:mm:ssxxx", "1", "9999" },
+		{ "OffsetDateTime", "yyyy-MM-dd'T'HH:mm:ssX", "1", "9999" },
+		{ "OffsetDateTime", "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", "1", "9999" },
+		{ "OffsetDateTime", "yyyy-MM-dd HH:mm:ssxx", "1", "9999" },
+	};
+	/* Formats that require the DateTimeFormatter fallback. */
+	private static final String[][] FALLBACK = {
+		{ "LocalDate", "EEE, d MMM yyyy", "1", "9999" },
+		{ "ZonedDateTime", "yyyy-MM-dd HH:mm:ss z", "1900", "2100" },
+		{ "LocalDateTime", "yyyy-MM-dd[ HH:mm:ss]", "1", "9999" },
+	};
+	private static final ZoneId[] ZONES = {
+		ZoneOffset.UTC, ZoneOffset.ofHoursMinutes(5, 30), ZoneOffset.ofHours(-8), ZoneOffset.ofHoursMinutes(-3, -30), ZoneId.of("America/New_York")
+	};
+	private static final int VALUES = 5_000;
+
+	private static ZonedDateTime random(final Random random, final String[] format) {
+		final int minYear = Integer.parseInt(format[2]);
+		final int maxYear = Integer.parseInt(format[3]);
+		final LocalDateTime dateTime = LocalDateTime.of(minYear + random.nextInt(maxYear - minYear + 1), 1 + random.nextInt(12), 1,
+				random.nextInt(24), random.nextInt(60), random.nextInt(60), random.nextInt(1_000_000_000)).plusDays(random.nextInt(31));
+		// Keep within the year range after adding the days
+		final LocalDateTime bounded = dateTime.getYear() > maxYear ? dateTime.minusMonths(1) : dateTime;
+		final ZoneId zone = "ZonedDateTime".equals(format[0]) ? ZONES[random.nextInt(ZONES.length)] : ZONES[random.nextInt(ZONES.length - 1)];
+		return bounded.atZone(zone);
+	}
+
+	/*
+	 * The key (or nano of the second) for a value as computed from the java.time parse.
+	 */
+	private static long expected(final String type, final TemporalAccessor parsed, final boolean nanoOfSecond) {
+		switch (type) {
+		case "LocalDate":
+			return LocalDate.from(parsed).toEpochDay();
+		case "LocalTime":
+			return LocalTime.from(parsed).toNanoOfDay();
+		case "LocalDateTime":
+			final LocalDateTime dateTime = LocalDateTime.from(parsed);
+			return nanoOfSecond ? dateTime.getNano() : dateTime.toEpochSecond(ZoneOffset.UTC);
+		case "OffsetDateTime":
+			final OffsetDateTime offsetDateTime = OffsetDateTime.from(parsed);
+			return nanoOfSecond ? offsetDateTime.getNano() : offsetDateTime.toEpochSecond();
+		default:
+			final ZonedDateTime zonedDateTime = ZonedDateTime.from(parsed);
+			return nanoOfSecond ? zonedDateTime.getNano() : zonedDateTime.toEpochSecond();
+		}
+	}
+
+	private static void checkKeys(final String[] format, final Random random) {
+		final CompiledDateFormat compiled = CompiledDateFormat.compile(format[0], format[1]);
+		final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(format[1], Locale.ENGLISH);
+		for (int i = 0; i < VALUES; i++) {
+			final String value = formatter.format(random(random, format));
+			final TemporalAccessor parsed = formatter.parse(value);
+			assertEquals(expected(format[0], parsed, false), compiled.parse(value), format[1] + " '" + value + "'");
+			if (compiled.hasNanoOfSecond())
+				assertEquals(expected(format[0], parsed, true), compiled.nanoOfSecond(value), format[1] + " '" + value + "'");
+		}
+	}
+
+	@Test
+	public void compiledKeys() {
+		final Random random = new Random(1);
+		for (final String[] format : COMPILED)
+			checkKeys(format, random);
+	}
+
+	@Test
+	public void fallbackKeys() {
+		final Random random = new Random(2);
+		for (final String[] format : FALLBACK)
+			checkKeys(format, random);
+	}
+
+	/*
+	 * Mutate valid values and check that exactly those that java.time accepts - with the format as supplied and, to
+	 * reject impossible dates rather than resolve them, in STRICT mode - are valid.
+	 */
+	@Test
+	public void compiledValidity() {
+		final Random random = new Random(3);
+		final String alphabet = "0123456789 :-/.TZ+APMaJjnu";
+		for (final String[] format : COMPILED) {
+			final CompiledDateFormat compiled = CompiledDateFormat.compile(format[0], format[1]);
+			final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(format[1], Locale.ENGLISH);
+			// STRICT resolution requires 'u' (proleptic year) rather than 'y' (year of era)
+			final DateTimeFormatter strict = DateTimeFormatter.ofPattern(format[1].replace('y', 'u'), Locale.ENGLISH).withResolverStyle(ResolverStyle.STRICT);
+			for (int i = 0; i < VALUES; i++) {
+				final StringBuilder b = new StringBuilder(formatter.format(random(random, format)));
+				final int pos = random.nextInt(b.length());
+				switch (random.nextInt(3)) {
+				case 0:
+					b.deleteCharAt(pos);
+					break;
+				case 1:
+					b.insert(pos, alphabet.charAt(random.nextInt(alphabet.length())));
+					break;
+				default:
+					b.setCharAt(pos, alphabet.charAt(random.nextInt(alphabet.length())));
+					break;
+				}
+				final String value = b.toString();
+				if (value.trim().length() != value.length())
+					continue;
+				long expected;
+				try {
+					formatter.parse(value);
+					expected = expected(format[0], strict.parse(value), false);
+				}
+				catch (DateTimeException e) {
+					expected = CompiledDateFormat.INVALID;
+				}
+				assertEquals(expected, compiled.parse(value), format[1] + " '" + value + "'");
+			}
+		}
+	}
+
+	@Test
+	public void impossibleDates() {
+		final CompiledDateFormat compiled = CompiledDateFormat.compile("LocalDate", "yyyy-MM-dd");
+		assertEquals(CompiledDateFormat.INVALID, compiled.parse("2021-02-29"));
+		assertEquals(CompiledDateFormat.INVALID, compiled.parse("1900-02-29"));
+		assertEquals(CompiledDateFormat.INVALID, compiled.parse("2021-04-31"));
+		assertEquals(CompiledDateFormat.INVALID, compiled.parse("2021-13-01"));
+		assertEquals(CompiledDateFormat.INVALID, compiled.parse("2021-00-10"));
+		assertEquals(LocalDate.of(2000, 2, 29).toEpochDay(), compiled.parse("2000-02-29"));
+		assertEquals(CompiledDateFormat.INVALID, compiled.parse(""));
+		assertEquals(CompiledDateFormat.INVALID, compiled.parse("garbage"));
+	}
+
+	@Test
+	public void textIsCaseSensitive() {
+		final CompiledDateFormat date = CompiledDateFormat.compile("LocalDate", "dd MMM yyyy");
+		assertNotEquals(CompiledDateFormat.INVALID, date.parse("01 Jan 2020"));
+		assertEquals(CompiledDateFormat.INVALID, date.parse("01 jan 2020"));
+		assertEquals(CompiledDateFormat.INVALID, date.parse("01 JAN 2020"));
+
+		final CompiledDateFormat time = CompiledDateFormat.compile("LocalTime", "h:mm a");
+		assertEquals(LocalTime.of(13, 5).toNanoOfDay(), time.parse("1:05 PM"));
+		assertEquals(CompiledDateFormat.INVALID, time.parse("1:05 pm"));
+		assertEquals(CompiledDateFormat.INVALID, time.parse("13:05 PM"));
+	}
+
+	@Test
+	public void surroundingWhiteSpace() {
+		final CompiledDateFormat compiled = CompiledDateFormat.compile("LocalDate", "yyyy-MM-dd");
+		assertEquals(LocalDate.of(2020, 6, 1).toEpochDay(), compiled.parse("  2020-06-01\t"));
+	}
+
+	@Test
+	public void fullRangeOfYears() {
+		final CompiledDateFormat compiled = CompiledDateFormat.compile("LocalDateTime", "yyyy-MM-dd HH:mm:ss.SSS");
+		assertTrue(compiled.hasNanoOfSecond());
+		assertEquals(LocalDateTime.of(1, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC), compiled.parse("0001-01-01 00:00:00.000"));
+		assertEquals(LocalDateTime.of(9999, 12, 31, 23, 59, 59).toEpochSecond(ZoneOffset.UTC), compiled.parse("9999-12-31 23:59:59.999"));
+		assertEquals(999_000_000, compiled.nanoOfSecond("9999-12-31 23:59:59.999"));
+		assertFalse(CompiledDateFormat.compile("LocalDate", "yyyy-MM-dd").hasNanoOfSecond());
+	}
+
+	@Test
+	public void unsupported() {
+		assertNull(CompiledDateFormat.compile("Long", "yyyy"));
+		assertNull(CompiledDateFormat.compile("LocalDate", null));
+		assertNull(CompiledDateFormat.compile("LocalDate", "yyyy-MM-dd'"));
+	}
+}
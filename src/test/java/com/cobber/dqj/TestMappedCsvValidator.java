@@ -0,0 +1,190 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.cobber.fta.core.FTAPluginException;
+import com.univocity.parsers.csv.CsvFormat;
+
+/*
+ * The memory-mapped fast path must present exactly the same values to the checks (and so report exactly the same
+ * errors) as the CsvParser path, whatever the content of the cells.
+ */
+public class TestMappedCsvValidator {
+	private static final String[] HEADER = { "a", "b", "c", "d" };
+	private static final String[] CELLS = {
+		"plain", "12345", "-1.5e3", "", " padded ", "\"\"", "\"a,b\"", "\"say \"\"hi\"\"\"", "\"\"\"\"",
+		"\"two\nlines\"", "\"two\r\nlines\"", "café", "日本", "😀", "\"é,\"", "\"ab\"c", "x\"y"
+	};
+	private static final long UNIQUE_BUDGET = 1024 * 1024;
+
+	@TempDir
+	Path dir;
+
+	/*
+	 * Every non-null value fails the OneOf and every null fails the NullPercent, so each cell yields exactly one error
+	 * (with its content), and the Unique rule reports the duplicates.
+	 */
+	private static ColumnValidator[] validators() throws FTAPluginException {
+		final RuleSet ruleSet = new RuleSet("any");
+		ruleSet.add(new Rule("NullPercent", "0.0"));
+		ruleSet.add(new Rule("OneOf", "\u0001"));
+		ruleSet.add(new Rule("Unique"));
+		final ColumnValidator[] validators = new ColumnValidator[HEADER.length];
+		Arrays.fill(validators, ColumnValidator.compile(ruleSet));
+		return validators;
+	}
+
+	private static final class Recorder implements ErrorSink {
+		final List<String> events = new ArrayList<>();
+
+		@Override
+		public void malformed(final long record, final int fields, final int expected) {
+			events.add("malformed " + record + " " + fields);
+		}
+
+		@Override
+		public void error(final int field, final long record, final String content) {
+			events.add("error " + record + " " + field + " [" + content + "]");
+		}
+
+		@Override
+		public void duplicate(final int field, final long record, final long previous) {
+			events.add("duplicate " + record + " " + field + " " + previous);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private Path generate(final Random random, final String eol, final boolean bom, final boolean finalEOL) throws IOException {
+		final StringBuilder b = new StringBuilder();
+		if (bom)
+			b.append('﻿');
+		b.append(String.join(",", HEADER)).append(eol);
+		final int records = 2000;
+		for (int r = 0; r < records; r++) {
+			if (random.nextInt(100) == 0) {
+				b.append("#comment").append(eol);
+				continue;
+			}
+			final int fields = random.nextInt(50) == 0 ? HEADER.length + random.nextInt(3) - 1 : HEADER.length;
+			for (int f = 0; f < fields; f++) {
+				if (f != 0)
+					b.append(',');
+				// Mostly plain cells so the Unique rule sees duplicates of varying values
+				b.append(random.nextBoolean() ? "v" + random.nextInt(500) : CELLS[random.nextInt(CELLS.length)]);
+			}
+			if (r != records - 1 || finalEOL)
+				b.append(eol);
+		}
+
+		final Path file = Files.createTempFile(dir, "mapped", ".csv");
+		Files.write(file, b.toString().getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static CsvFormat format(final String eol) {
+		final CsvFormat format = new CsvFormat();
+		format.setDelimiter(',');
+		format.setQuote('"');
+		format.setQuoteEscape('"');
+		format.setLineSeparator(eol);
+		return format;
+	}
+
+	private static List<String> standard(final Path file, final CsvFormat format, final ColumnValidator[] validators, final QualityReport[] report) throws IOException {
+		final Recorder recorder = new Recorder();
+		try (CsvInput input = new CsvInput(file.toString(), format)) {
+			assertEquals(Arrays.asList(HEADER), Arrays.asList(input.header));
+			report[0] = Quality.validate(input, Collections.emptyList(), validators, recorder, 1, false, UNIQUE_BUDGET);
+		}
+		return recorder.events;
+	}
+
+	private static List<String> mapped(final Path file, final CsvFormat format, final ColumnValidator[] validators, final QualityReport[] report) throws IOException {
+		final Recorder recorder = new Recorder();
+		report[0] = new QualityReport(HEADER);
+		try (UniqueChecker unique = UniqueChecker.create(validators, UNIQUE_BUDGET)) {
+			assertTrue(new MappedCsvValidator(file.toString(), HEADER, format, validators).run(report[0], recorder, unique), "Fell back to the CsvParser");
+			unique.finish(report[0], recorder);
+		}
+		return recorder.events;
+	}
+
+	private void differential(final String eol, final boolean bom, final boolean finalEOL) throws IOException, FTAPluginException {
+		final Random random = new Random(eol.length() * 4 + (bom ? 2 : 0) + (finalEOL ? 1 : 0));
+		final ColumnValidator[] validators = validators();
+		for (int i = 0; i < 5; i++) {
+			final Path file = generate(random, eol, bom, finalEOL);
+			final QualityReport[] expectedReport = new QualityReport[1];
+			final QualityReport[] actualReport = new QualityReport[1];
+			final List<String> expected = standard(file, format(eol), validators, expectedReport);
+			final List<String> actual = mapped(file, format(eol), validators, actualReport);
+
+			assertEquals(expected, actual);
+			assertEquals(expectedReport[0].asJSON(), actualReport[0].asJSON());
+		}
+	}
+
+	@Test
+	public void unixLineEndings() throws IOException, FTAPluginException {
+		differential("\n", false, true);
+	}
+
+	@Test
+	public void windowsLineEndings() throws IOException, FTAPluginException {
+		differential("\r\n", false, true);
+	}
+
+	@Test
+	public void byteOrderMark() throws IOException, FTAPluginException {
+		differential("\n", true, true);
+		differential("\r\n", true, true);
+	}
+
+	@Test
+	public void noFinalLineEnding() throws IOException, FTAPluginException {
+		differential("\n", false, false);
+		differential("\r\n", false, false);
+	}
+
+	@Test
+	public void supportedFormats() {
+		assertTrue(MappedCsvValidator.supports(format("\n")));
+		assertTrue(MappedCsvValidator.supports(format("\r\n")));
+		assertEquals(false, MappedCsvValidator.supports(format("\r")));
+		final CsvFormat backslash = format("\n");
+		backslash.setQuoteEscape('\\');
+		assertEquals(false, MappedCsvValidator.supports(backslash));
+	}
+}
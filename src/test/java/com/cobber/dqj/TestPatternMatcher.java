@@ -0,0 +1,189 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * The DFA must accept exactly the (non-blank) values java.util.regex matches, patterns it cannot handle must fall back.
+ */
+public class TestPatternMatcher {
+	private static final int VALUES = 20_000;
+
+	/* Patterns of the form generated by FTA, plus the odd corners of the syntax. */
+	private static final String[] DFA = {
+		"#\\p{XDigit}{6}",
+		"(0|1)",
+		"(?:(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(?:25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)",
+		"(?i)(AF|AN|AS|EU|NA|OC|SA)",
+		"(?i)(FALSE|TRUE)",
+		"(?i)(I|II|III|IV|JR|JR\\.|\\QM.D.\\E|SR|SR\\.|V|VI|VII|VIII)",
+		"([+-]?([0-9]|[0-8][0-9])\\.\\d+)|[+-]?90\\.0+|0",
+		"([+-]?([0-9]|[0-9][0-9]|1[0-7][0-9])\\.\\d+)|[+-]?180\\.0+|[+-]?\\d*\\.?\\d+([eE]([+-]?\\d{1,3}))?",
+		"(\\d{5,6}|\\d{1,3} \\d{1,2} \\d{1,2} ?)[NnSs]",
+		"(https?|ftp|file)?[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]",
+		".*",
+		".+",
+		".{7,22}",
+		"[-' \\p{IsAlphabetic}]+",
+		"[-+|*:;!@\"/()',&# \\.\\p{IsAlphabetic}\\d]*",
+		"[1-9]|0[1-9]|[12][0-9]|3[01]",
+		"[A-HJ-NPR-Z0-9]{17}",
+		"[\\p{IsAlphabetic}][-\\p{IsAlphabetic} '\\.(),]+",
+		"[a-fA-F0-9]{8}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{12}",
+		"[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}",
+		"\\d*\\.?\\d+",
+		"\\d{5}(-\\d{4})?",
+		"\\p{IsAlphabetic}[- \\p{IsAlphabetic}]*, ?[- \\p{IsAlphabetic}]+",
+		"\\p{IsAlphabetic}\\.?",
+		"\\p{XDigit}{2}:\\p{XDigit}{2}:\\p{XDigit}{2}",
+		"a*?b",
+		"[^abc]+",
+		"\\P{IsAlphabetic}+",
+		"(?i)[a-c]x",
+		"[\\x41-\\x43]\\u0044",
+		"a{2,}",
+		"(ab|a)(bc|c)",
+		"[^\\p{IsAlphabetic}\\d]*",
+		"\\w+\\s\\W",
+		"x{0}y",
+		".\uD83D\uDE00.",
+		"(?i)[\\P{Lower}]+",
+		"(?i)[^a]+",
+		"(?i)\\P{Alpha}",
+		"(?i)[\\W]+",
+		"(?i)\\x41+",
+		"(?i)\\p{Lower}+",
+		"(?i)\\p{Upper}+",
+		"\\p{IsUppercase}\\p{javaLowerCase}",
+		"(?i)\\W+",
+		"(?i)\\p{Alpha}\\d"
+	};
+
+	/*
+	 * Patterns the DFA does not handle - lookaround, backreferences, boundaries, possessive quantifiers, intersections, a
+	 * quantified quote, escaped surrogates and case-insensitive Unicode case properties.
+	 */
+	private static final String[] FALLBACK = {
+		"(?!666|000|9\\d{2})\\d{3}-(?!00)\\d{2}-(?!0{4})\\d{4}",
+		"(a)\\1",
+		"\\bfoo",
+		"a++",
+		"[\\p{L}&&[^a]]",
+		"\\Qa.b\\E+",
+		".\\uD83D\\uDE00.",
+		"(?i)\\p{javaLowerCase}+",
+		"(?i)\\p{IsUppercase}+"
+	};
+
+	/* Fragments that, concatenated, give values close to matching the patterns above. */
+	private static final String[] FRAGMENTS = {
+		"0", "1", "9", "25", "255", "256", "90", "180", "12345", "1234", ".", "-", "+", " ", ", ", ":", "@", "#", "/",
+		"a", "b", "c", "x", "y", "ab", "A", "D", "N", "E", "e", "jr", "M.D.", "Sr.", "vii", "af", "TRUE", "http://",
+		"fe", "C0", "ff", "é", "É", "ß", "中", "_", "'", "\t", " ", "😀", "𝐀"
+	};
+
+	private static final String ALPHABET = "aAbBcCxyzXD019.-+ :,#@/'_éÉß中İK\t";
+
+	private static List<String> corpus() {
+		final Random random = new Random(1);
+		final List<String> ret = new ArrayList<>();
+		for (int i = 0; i < VALUES; i++) {
+			final StringBuilder b = new StringBuilder();
+			final int length = random.nextInt(12);
+			if (random.nextBoolean())
+				for (int j = 0; j < length; j++)
+					b.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+			else
+				for (int j = 0; j < length; j++)
+					b.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			ret.add(b.toString());
+		}
+
+		// Well-formed values and their lone surrogates
+		ret.add("192.168.0.1");
+		ret.add("255.255.255.256");
+		ret.add("12345-6789");
+		ret.add("john.smith@example.com");
+		ret.add("https://example.com/a?b=c");
+		ret.add("1HGCM82633A004352");
+		ret.add("Smith, John");
+		ret.add("-89.5");
+		ret.add("180.000");
+		ret.add("1.5e10");
+		ret.add("a😀b");
+		ret.add("a\uD83Db");
+		ret.add("\uDE00");
+
+		return ret;
+	}
+
+	private static void differential(final String regExp, final ColumnValidator.Check check, final List<String> corpus) {
+		final Pattern pattern = Pattern.compile(regExp);
+		for (final String value : corpus)
+			if (!ColumnValidator.isBlank(value))
+				assertEquals(pattern.matcher(value).matches(), check.isValid(value), () -> "/" + regExp + "/ '" + value + "'");
+	}
+
+	@Test
+	public void dfa() {
+		final List<String> corpus = corpus();
+		for (final String regExp : DFA) {
+			final PatternMatcher matcher = PatternMatcher.compileDFA(regExp);
+			assertNotNull(matcher, regExp);
+			differential(regExp, matcher, corpus);
+		}
+	}
+
+	@Test
+	public void fallback() {
+		final List<String> corpus = corpus();
+		for (final String regExp : FALLBACK) {
+			assertNull(PatternMatcher.compileDFA(regExp), regExp);
+			final ColumnValidator.Check check = PatternMatcher.compile(regExp);
+			assertNotNull(check, regExp);
+			differential(regExp, check, corpus);
+		}
+	}
+
+	@Test
+	public void blank() {
+		final ColumnValidator.Check check = PatternMatcher.compile("\\d+");
+		assertTrue(check.isValid(null));
+		assertTrue(check.isValid(""));
+		assertTrue(check.isValid(" \t"));
+		assertFalse(check.isValid(" 1"));
+	}
+
+	@Test
+	public void invalid() {
+		assertNull(PatternMatcher.compile(null));
+		assertNull(PatternMatcher.compile("[a-"));
+		assertNull(PatternMatcher.compile("(ab"));
+		assertNull(PatternMatcher.compileDFA("[a-"));
+	}
+}
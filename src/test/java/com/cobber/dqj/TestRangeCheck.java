@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * The allocation-free numeric parsers must agree with Long.parseLong/Double.parseDouble, and the compiled ranges with a
+ * comparison of the parsed values.
+ */
+public class TestRangeCheck {
+	private static final int VALUES = 50_000;
+
+	private static final String[] NOT_NUMBERS = {
+		"", " ", "-", "+", ".", "-.", "e5", "1e", "1e+", "1.2.3", "1,000", "0x10", "1d", "1f", "NaN", "Infinity",
+		"--1", "+-1", "1-", "1 2", "١٢٣", "abc"
+	};
+
+	private static String randomLong(final Random random) {
+		switch (random.nextInt(4)) {
+		case 0:
+			return String.valueOf(random.nextLong());
+		case 1:
+			return String.valueOf(random.nextInt(2000) - 1000);
+		case 2:
+			// Around the limits
+			return new BigDecimal(random.nextBoolean() ? Long.MAX_VALUE : Long.MIN_VALUE).add(BigDecimal.valueOf(random.nextInt(21) - 10)).toPlainString();
+		default:
+			return (random.nextBoolean() ? "+" : " ") + String.format("%0" + (1 + random.nextInt(25)) + "d", Math.abs(random.nextInt())) + " ";
+		}
+	}
+
+	private static String randomDouble(final Random random) {
+		switch (random.nextInt(5)) {
+		case 0:
+			return String.valueOf(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+		case 1:
+			return String.valueOf(Double.longBitsToDouble(random.nextLong() & 0x7fefffffffffffffL));
+		case 2:
+			return String.format("%." + random.nextInt(8) + "f", (random.nextDouble() - 0.5) * 1e6);
+		case 3:
+			// More significant digits than the fast path handles
+			return "0." + Math.abs(random.nextLong()) + Math.abs(random.nextLong());
+		default:
+			return (random.nextInt(2000) - 1000) + (random.nextBoolean() ? "." : "") + "e" + (random.nextInt(50) - 25);
+		}
+	}
+
+	@Test
+	public void parseLong() {
+		final Random random = new Random(1);
+		for (int i = 0; i < VALUES; i++) {
+			final String value = randomLong(random);
+			Long expected;
+			try {
+				expected = Long.parseLong(value.trim());
+			}
+			catch (NumberFormatException e) {
+				expected = null;
+			}
+			assertEquals(expected != null, RangeCheck.isLong(value), value);
+			if (expected != null)
+				assertEquals(expected.longValue(), RangeCheck.parseLong(value), value);
+		}
+
+		for (final String value : NOT_NUMBERS)
+			assertFalse(RangeCheck.isLong(value), value);
+		assertTrue(RangeCheck.isLong("9223372036854775807"));
+		assertFalse(RangeCheck.isLong("9223372036854775808"));
+		assertEquals(Long.MIN_VALUE, RangeCheck.parseLong("-9223372036854775808"));
+		assertFalse(RangeCheck.isLong("-9223372036854775809"));
+	}
+
+	@Test
+	public void parseDouble() {
+		final Random random = new Random(2);
+		for (int i = 0; i < VALUES; i++) {
+			final String value = randomDouble(random);
+			final double expected = Double.parseDouble(value);
+			assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(RangeCheck.parseDouble(value)), value);
+			assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(RangeCheck.parseDouble(" " + value + "\t")), value);
+		}
+
+		for (final String value : NOT_NUMBERS)
+			assertTrue(Double.isNaN(RangeCheck.parseDouble(value)), value);
+		assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(RangeCheck.parseDouble("-0")));
+		assertEquals(Double.MIN_VALUE, RangeCheck.parseDouble("4.9e-324"));
+		assertEquals(Double.POSITIVE_INFINITY, RangeCheck.parseDouble("1e400"));
+	}
+
+	@Test
+	public void longRange() {
+		final ColumnValidator.Check check = RangeCheck.compile("f", "Long", null, "-100", "100");
+		final Random random = new Random(3);
+		for (int i = 0; i < VALUES; i++) {
+			final String value = randomLong(random);
+			final long parsed;
+			try {
+				parsed = Long.parseLong(value.trim());
+			}
+			catch (NumberFormatException e) {
+				assertFalse(check.isValid(value), value);
+				continue;
+			}
+			assertEquals(parsed >= -100 && parsed <= 100, check.isValid(value), value);
+		}
+
+		assertTrue(check.isValid(null));
+		assertTrue(check.isValid("  "));
+		assertFalse(check.isValid("12.5"));
+		assertTrue(RangeCheck.compile("f", "Long", null, null, "0").isValid("-9223372036854775808"));
+	}
+
+	@Test
+	public void doubleRange() {
+		final ColumnValidator.Check check = RangeCheck.compile("f", "Double", "SIGNED,EXPONENT", "-0.5", "1e3");
+		final Random random = new Random(4);
+		for (int i = 0; i < VALUES; i++) {
+			final String value = randomDouble(random);
+			final double parsed = Double.parseDouble(value);
+			assertEquals(parsed >= -0.5 && parsed <= 1e3, check.isValid(value), value);
+		}
+
+		for (final String value : NOT_NUMBERS)
+			assertEquals(value.trim().isEmpty(), check.isValid(value), value);
+	}
+
+	@Test
+	public void unenforced() {
+		// Nothing to check, modifiers the parser cannot handle, unsupported types
+		assertNull(RangeCheck.compile("f", "Long", null, null, null));
+		assertNull(RangeCheck.compile("f", "Long", "GROUPING", "0", "10"));
+		assertNull(RangeCheck.compile("f", "Double", "SIGNED_TRAILING", "0", "10"));
+		assertNull(RangeCheck.compile("f", "String", null, "a", "z"));
+		assertNull(RangeCheck.compile("f", null, null, "0", "10"));
+
+		// An unparseable bound is ignored, the other is still enforced
+		final ColumnValidator.Check check = RangeCheck.compile("f", "Long", null, "zero", "10");
+		assertNotNull(check);
+		assertTrue(check.isValid("-9223372036854775808"));
+		assertFalse(check.isValid("11"));
+	}
+
+	@Test
+	public void dateTimeRange() {
+		final String format = "yyyy-MM-dd HH:mm:ss.SSS";
+		final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(format);
+		final LocalDateTime min = LocalDateTime.parse("2001-02-03 04:05:06.789", formatter);
+		final LocalDateTime max = LocalDateTime.parse("2030-12-31 23:59:59.001", formatter);
+		final ColumnValidator.Check check = RangeCheck.compile("f", "LocalDateTime", format, min.format(formatter), max.format(formatter));
+		final Random random = new Random(5);
+		for (int i = 0; i < VALUES; i++) {
+			final LocalDateTime value;
+			switch (random.nextInt(3)) {
+			case 0:
+				// Within a second of a bound - so the nanos matter
+				value = (random.nextBoolean() ? min : max).plusNanos((random.nextInt(2000) - 1000) * 1_000_000L);
+				break;
+			case 1:
+				value = min.plusSeconds(random.nextInt(1_000_000_000));
+				break;
+			default:
+				value = LocalDateTime.of(1 + random.nextInt(9999), 1 + random.nextInt(12), 1 + random.nextInt(28),
+						random.nextInt(24), random.nextInt(60), random.nextInt(60), random.nextInt(1000) * 1_000_000);
+			}
+			assertEquals(!value.isBefore(min) && !value.isAfter(max), check.isValid(value.format(formatter)), value.format(formatter));
+		}
+
+		assertFalse(check.isValid("2010-02-30 00:00:00.000"));
+		assertFalse(check.isValid("2010-01-01"));
+		assertTrue(check.isValid(""));
+	}
+
+	@Test
+	public void dateRangeFullYears() {
+		final ColumnValidator.Check check = RangeCheck.compile("f", "LocalDate", "yyyy-MM-dd", "0001-01-01", "9999-12-31");
+		assertTrue(check.isValid("0001-01-01"));
+		assertTrue(check.isValid("9999-12-31"));
+		assertFalse(check.isValid("0000-12-31"));
+
+		final ColumnValidator.Check open = RangeCheck.compile("f", "LocalDate", "yyyy-MM-dd", "1970-01-01", null);
+		assertTrue(open.isValid("9999-12-31"));
+		assertFalse(open.isValid("1969-12-31"));
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2022 Tim Segall
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cobber.dqj;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import com.cobber.fta.core.FTAPluginException;
+
+/*
+ * The duplicates reported by the UniqueChecker must be exactly those found by a HashMap of the values, whether or not
+ * the fingerprint tables spill to disk.
+ */
+public class TestUniqueChecker {
+	private static final String[] HEADER = { "id", "code", "other" };
+
+	private static ColumnValidator[] validators() throws FTAPluginException {
+		final RuleSet unique = new RuleSet("unique");
+		unique.add(new Rule("Unique"));
+		final ColumnValidator uniqueValidator = ColumnValidator.compile(unique);
+		return new ColumnValidator[] { uniqueValidator, uniqueValidator, ColumnValidator.compile(new RuleSet("other")) };
+	}
+
+	private static final class Recorder implements ErrorSink {
+		/* For each field, the duplicate record mapped to the earlier record reported. */
+		final List<Map<Long, Long>> duplicates = new ArrayList<>();
+
+		Recorder() {
+			for (int i = 0; i < HEADER.length; i++)
+				duplicates.add(new TreeMap<>());
+		}
+
+		@Override
+		public void malformed(final long record, final int fields, final int expected) {
+		}
+
+		@Override
+		public void error(final int field, final long record, final String content) {
+		}
+
+		@Override
+		public void duplicate(final int field, final long record, final long previous) {
+			assertNull(duplicates.get(field).put(record, previous), "Duplicate reported twice");
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static void check(final int records, final int cardinality, final long budget) throws IOException, FTAPluginException {
+		final Random random = new Random(records + cardinality);
+		final List<String[]> rows = new ArrayList<>();
+		final List<Map<Long, Long>> expected = new ArrayList<>();
+		final List<Map<String, Long>> first = new ArrayList<>();
+		for (int i = 0; i < HEADER.length; i++) {
+			expected.add(new TreeMap<>());
+			first.add(new HashMap<>());
+		}
+
+		final Recorder recorder = new Recorder();
+		final QualityReport report = new QualityReport(HEADER);
+		try (UniqueChecker unique = UniqueChecker.create(validators(), budget)) {
+			for (long record = 1; record <= records; record++) {
+				final String[] row;
+				if (random.nextInt(100) == 0)
+					// Malformed records are ignored
+					row = new String[] { "v0" };
+				else {
+					row = new String[HEADER.length];
+					for (int i = 0; i < row.length; i++) {
+						final int choice = random.nextInt(50);
+						// Nulls and blanks are never duplicates
+						row[i] = choice == 0 ? null : choice == 1 ? "  " : "v" + random.nextInt(cardinality);
+					}
+					for (int i = 0; i < 2; i++)
+						if (row[i] != null && !row[i].trim().isEmpty()) {
+							final Long previous = first.get(i).putIfAbsent(row[i], record);
+							if (previous != null)
+								expected.get(i).put(record, previous);
+						}
+				}
+				rows.add(row);
+				unique.add(record, row);
+			}
+			unique.finish(report, recorder);
+		}
+
+		for (int i = 0; i < HEADER.length; i++) {
+			assertEquals(expected.get(i).keySet(), recorder.duplicates.get(i).keySet(), HEADER[i]);
+			assertEquals(expected.get(i).size(), report.getDuplicates(i), HEADER[i]);
+			// The earlier record reported need not be the first occurrence, but it must be an earlier occurrence
+			for (final Map.Entry<Long, Long> entry : recorder.duplicates.get(i).entrySet()) {
+				final long record = entry.getKey();
+				final long previous = entry.getValue();
+				assertTrue(previous < record);
+				assertEquals(rows.get((int)record - 1)[i], rows.get((int)previous - 1)[i]);
+			}
+		}
+	}
+
+	@Test
+	public void inMemory() throws IOException, FTAPluginException {
+		check(100_000, 50_000, 64L * 1024 * 1024);
+	}
+
+	@Test
+	public void spilled() throws IOException, FTAPluginException {
+		// The smallest table holds 716 entries, so this spills many runs
+		check(100_000, 50_000, 0);
+		check(100_000, 500, 0);
+		check(20_000, 1_000_000, 0);
+	}
+
+	@Test
+	public void noUniqueRule() throws FTAPluginException {
+		final ColumnValidator other = ColumnValidator.compile(new RuleSet("other"));
+		assertNull(UniqueChecker.create(new ColumnValidator[] { other, other }, 0));
+	}
+
+	@Test
+	public void zeroFingerprint() throws IOException {
+		// An all-zero fingerprint is the marker for an empty slot, so must still be detected as a duplicate
+		final List<long[]> duplicates = new ArrayList<>();
+		try (FingerprintTable table = new FingerprintTable(0)) {
+			table.add(0, 0, 1);
+			table.add(0, 2, 2);
+			table.add(0, 0, 3);
+			// Lands in the same slot as the zero fingerprint, but is distinct
+			table.add(1024, 0, 4);
+			table.finish((record, previous) -> duplicates.add(new long[] { record, previous }));
+		}
+		assertEquals(1, duplicates.size());
+		assertEquals(3, duplicates.get(0)[0]);
+		assertEquals(1, duplicates.get(0)[1]);
+	}
+}